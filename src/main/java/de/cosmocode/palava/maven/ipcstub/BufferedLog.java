@@ -0,0 +1,209 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * A {@link Log} which collects all messages and passes them to another log
+ * on {@link #flush()}. Used to keep the output of concurrently running generators
+ * together and in a stable order.
+ */
+final class BufferedLog implements Log {
+
+    private static final int DEBUG = 0;
+    private static final int INFO = 1;
+    private static final int WARN = 2;
+    private static final int ERROR = 3;
+
+    private final Log delegate;
+
+    private final List<Message> messages = Lists.newArrayList();
+
+    BufferedLog(Log delegate) {
+        this.delegate = Preconditions.checkNotNull(delegate, "Delegate");
+    }
+
+    private synchronized void add(int level, CharSequence content, Throwable error) {
+        messages.add(new Message(level, content, error));
+    }
+
+    /**
+     * Passes all collected messages to the underlying log.
+     */
+    synchronized void flush() {
+        for (Message message : messages) {
+            if (message.content == null) {
+                switch (message.level) {
+                    case DEBUG:
+                        delegate.debug(message.error);
+                        break;
+                    case INFO:
+                        delegate.info(message.error);
+                        break;
+                    case WARN:
+                        delegate.warn(message.error);
+                        break;
+                    default:
+                        delegate.error(message.error);
+                }
+            } else if (message.error == null) {
+                switch (message.level) {
+                    case DEBUG:
+                        delegate.debug(message.content);
+                        break;
+                    case INFO:
+                        delegate.info(message.content);
+                        break;
+                    case WARN:
+                        delegate.warn(message.content);
+                        break;
+                    default:
+                        delegate.error(message.content);
+                }
+            } else {
+                switch (message.level) {
+                    case DEBUG:
+                        delegate.debug(message.content, message.error);
+                        break;
+                    case INFO:
+                        delegate.info(message.content, message.error);
+                        break;
+                    case WARN:
+                        delegate.warn(message.content, message.error);
+                        break;
+                    default:
+                        delegate.error(message.content, message.error);
+                }
+            }
+        }
+        messages.clear();
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return delegate.isDebugEnabled();
+    }
+
+    @Override
+    public void debug(CharSequence content) {
+        debug(content, null);
+    }
+
+    @Override
+    public void debug(CharSequence content, Throwable error) {
+        if (isDebugEnabled()) {
+            add(DEBUG, content, error);
+        }
+    }
+
+    @Override
+    public void debug(Throwable error) {
+        debug(null, error);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return delegate.isInfoEnabled();
+    }
+
+    @Override
+    public void info(CharSequence content) {
+        info(content, null);
+    }
+
+    @Override
+    public void info(CharSequence content, Throwable error) {
+        if (isInfoEnabled()) {
+            add(INFO, content, error);
+        }
+    }
+
+    @Override
+    public void info(Throwable error) {
+        info(null, error);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return delegate.isWarnEnabled();
+    }
+
+    @Override
+    public void warn(CharSequence content) {
+        warn(content, null);
+    }
+
+    @Override
+    public void warn(CharSequence content, Throwable error) {
+        if (isWarnEnabled()) {
+            add(WARN, content, error);
+        }
+    }
+
+    @Override
+    public void warn(Throwable error) {
+        warn(null, error);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return delegate.isErrorEnabled();
+    }
+
+    @Override
+    public void error(CharSequence content) {
+        error(content, null);
+    }
+
+    @Override
+    public void error(CharSequence content, Throwable error) {
+        if (isErrorEnabled()) {
+            add(ERROR, content, error);
+        }
+    }
+
+    @Override
+    public void error(Throwable error) {
+        error(null, error);
+    }
+
+    /**
+     * A single collected log message.
+     */
+    private static final class Message {
+
+        private final int level;
+
+        private final CharSequence content;
+
+        private final Throwable error;
+
+        Message(int level, CharSequence content, Throwable error) {
+            this.level = level;
+            this.content = content;
+            this.error = error;
+        }
+
+    }
+
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import de.cosmocode.palava.ipc.IpcCommand;
+
+/**
+ * Finds {@link IpcCommand} implementations by reading class files directly.
+ * No class is loaded during the scan; the type hierarchy is resolved from the
+ * collected {@link ClassHeader}s of the whole classpath.
+ */
+final class BytecodeScanner {
+
+    private static final String COMMAND = IpcCommand.class.getName();
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final Log log;
+
+    // first occurence on the classpath wins, just like in a classloader
+    private final Map<String, ClassHeader> headers = Maps.newHashMap();
+
+    private final Map<String, Boolean> resolved = Maps.newHashMap();
+
+    BytecodeScanner(Log log) {
+        this.log = Preconditions.checkNotNull(log, "Log");
+    }
+
+    /**
+     * Adds the given headers to the known type hierarchy.
+     *
+     * @param classHeaders the headers of one classpath element
+     */
+    void addAll(Iterable<ClassHeader> classHeaders) {
+        for (ClassHeader header : classHeaders) {
+            if (!headers.containsKey(header.getName())) {
+                headers.put(header.getName(), header);
+            }
+        }
+        resolved.clear();
+    }
+
+    /**
+     * Finds all concrete {@link IpcCommand} implementations wanted by any generator.
+     *
+     * @param matcher the compiled packages of all generators
+     * @return the binary names of all found commands, ordered by name
+     */
+    SortedSet<String> findCommands(PackageMatcher matcher) {
+        final SortedSet<String> commands = Sets.newTreeSet();
+        for (ClassHeader header : headers.values()) {
+            if (header.isConcrete() && matcher.matchesAny(header.getName()) && isCommand(header.getName())) {
+                commands.add(header.getName());
+            }
+        }
+        return commands;
+    }
+
+    private boolean isCommand(String className) {
+        if (COMMAND.equals(className)) {
+            return true;
+        }
+        final Boolean known = resolved.get(className);
+        if (known != null) {
+            return known.booleanValue();
+        }
+
+        final ClassHeader header = headers.get(className);
+        if (header == null) {
+            // not on the scanned classpath, e.g. jdk classes
+            return false;
+        }
+
+        // guards against broken hierarchies
+        resolved.put(className, Boolean.FALSE);
+
+        boolean command = header.getSuperName() != null && isCommand(header.getSuperName());
+        for (String iface : header.getInterfaces()) {
+            if (command) {
+                break;
+            }
+            command = isCommand(iface);
+        }
+
+        resolved.put(className, Boolean.valueOf(command));
+        return command;
+    }
+
+    /**
+     * Reads the headers of all classes within the given classpath element. Classes
+     * which have no supertype besides java.lang.Object are omitted because
+     * they can't be part of a command hierarchy.
+     *
+     * @param location a directory or jar file
+     * @param log the maven logger
+     * @return all relevant class headers
+     * @throws IOException if reading failed
+     */
+    static List<ClassHeader> read(File location, Log log) throws IOException {
+        final List<ClassHeader> classHeaders = Lists.newArrayList();
+        if (location.isDirectory()) {
+            readDirectory(location, classHeaders, log);
+        } else if (location.isFile()) {
+            readArchive(location, classHeaders, log);
+        } else {
+            log.debug("Skipping missing classpath element " + location);
+        }
+        return classHeaders;
+    }
+
+    private static void readDirectory(File directory, List<ClassHeader> classHeaders, Log log) throws IOException {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                readDirectory(file, classHeaders, log);
+            } else if (file.getName().endsWith(CLASS_SUFFIX)) {
+                final InputStream stream = new FileInputStream(file);
+                try {
+                    add(file.getPath(), IOUtils.toByteArray(stream), classHeaders, log);
+                } finally {
+                    IOUtils.closeQuietly(stream);
+                }
+            }
+        }
+    }
+
+    private static void readArchive(File archive, List<ClassHeader> classHeaders, Log log) throws IOException {
+        final ZipFile zip = new ZipFile(archive);
+        try {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                // skips multi release variants and module descriptors
+                if (entry.isDirectory() || !entry.getName().endsWith(CLASS_SUFFIX)
+                    || entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+                final InputStream stream = zip.getInputStream(entry);
+                try {
+                    add(archive + "!" + entry.getName(), IOUtils.toByteArray(stream), classHeaders, log);
+                } finally {
+                    IOUtils.closeQuietly(stream);
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void add(String source, byte[] bytes, List<ClassHeader> classHeaders, Log log) {
+        final ClassHeader header;
+        try {
+            header = ClassHeader.parse(bytes);
+        } catch (IllegalArgumentException e) {
+            log.debug("Skipping unreadable class file " + source + ": " + e.getMessage());
+            return;
+        }
+        if (header.hasSupertypes()) {
+            classHeaders.add(header);
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import de.cosmocode.palava.ipc.IpcCommand;
+
+/**
+ * Marks the results of an idempotent command as cacheable by clients. Any meta
+ * annotation with the simple name "CacheHint" and attributes of the same types, at
+ * least a long ttl, is treated alike, so commands don't need to depend on this plugin.
+ */
+@Documented
+@IpcCommand.Meta
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CacheHint {
+
+    /**
+     * How long a result stays valid, in seconds.
+     */
+    long ttl();
+
+    /**
+     * Whether results differ between sessions.
+     */
+    boolean sessionDependent() default false;
+
+    /**
+     * The maximum number of cached results per client.
+     */
+    int maxEntries() default 100;
+
+}
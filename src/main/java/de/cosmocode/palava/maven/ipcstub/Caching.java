@@ -0,0 +1,102 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import com.google.common.base.Preconditions;
+
+import de.cosmocode.palava.maven.ipcstub.InspectedCommand.MetaInfo;
+
+/**
+ * The client side caching settings of a command, read from its {@link CacheHint}.
+ */
+public final class Caching {
+
+    private static final String HINT = CacheHint.class.getSimpleName();
+
+    private final long ttl;
+
+    private final boolean sessionDependent;
+
+    private final int maxEntries;
+
+    private Caching(long ttl, boolean sessionDependent, int maxEntries) {
+        Preconditions.checkArgument(ttl > 0, "ttl must be positive but was %s", ttl);
+        Preconditions.checkArgument(maxEntries > 0, "maxEntries must be positive but was %s", maxEntries);
+        this.ttl = ttl;
+        this.sessionDependent = sessionDependent;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * How long a result stays valid.
+     *
+     * @return the time to live in seconds
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    public long getTtlMillis() {
+        return ttl * 1000L;
+    }
+
+    public boolean isSessionDependent() {
+        return sessionDependent;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Checks whether the given meta information is a {@link CacheHint}, lookalikes need
+     * a long ttl and may declare a boolean sessionDependent and an int maxEntries.
+     *
+     * @param info the meta information of a command
+     * @return true if it is a cache hint, false otherwise
+     */
+    static boolean isHint(MetaInfo info) {
+        return HINT.equals(info.getType().getSimpleName()) && "long".equals(info.getAttributeType("ttl")) && 
+            hasType(info, "sessionDependent", "boolean") && hasType(info, "maxEntries", "int");
+    }
+
+    private static boolean hasType(MetaInfo info, String attribute, String type) {
+        final String actual = info.getAttributeType(attribute);
+        return actual == null || actual.equals(type);
+    }
+
+    /**
+     * Reads the settings of a {@link CacheHint} or a lookalike annotation.
+     *
+     * @param info the hint
+     * @return the settings
+     * @throws IllegalArgumentException if the hint has invalid values
+     */
+    static Caching of(MetaInfo info) {
+        Preconditions.checkArgument(isHint(info), "%s is no cache hint", info.getType());
+        final String ttl = info.get("ttl");
+        final String sessionDependent = info.get("sessionDependent");
+        final String maxEntries = info.get("maxEntries");
+        try {
+            return new Caching(Long.parseLong(ttl), Boolean.parseBoolean(sessionDependent), 
+                maxEntries == null ? 100 : Integer.parseInt(maxEntries));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(info.getType() + " declares an invalid number", e);
+        }
+    }
+
+}
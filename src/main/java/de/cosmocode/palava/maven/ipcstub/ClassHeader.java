@@ -0,0 +1,223 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The type relevant part of a class file: name, super class and interfaces.
+ * Headers are read directly from the bytecode without loading the class.
+ */
+final class ClassHeader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    private final String name;
+
+    private final String superName;
+
+    private final List<String> interfaces;
+
+    private final boolean concrete;
+
+    ClassHeader(String name, String superName, List<String> interfaces, boolean concrete) {
+        this.name = Preconditions.checkNotNull(name, "Name");
+        this.superName = superName;
+        this.interfaces = ImmutableList.copyOf(interfaces);
+        this.concrete = concrete;
+    }
+
+    /**
+     * The binary name of this class, e.g. "com.acme.Outer$Inner".
+     *
+     * @return the class name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The binary name of the super class, null for java.lang.Object and interfaces
+     * without an explicit super class.
+     *
+     * @return the super class name or null
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     * Checks whether this class is neither abstract nor an interface.
+     *
+     * @return true if this class can be instantiated, false otherwise
+     */
+    public boolean isConcrete() {
+        return concrete;
+    }
+
+    /**
+     * Checks whether this class can be a subtype of anything but java.lang.Object.
+     *
+     * @return true if a super class other than Object or any interface is declared
+     */
+    public boolean hasSupertypes() {
+        return (superName != null && !"java.lang.Object".equals(superName)) || !interfaces.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Parses the header of the given class file. Only the constant pool and the
+     * type declaration are read, fields, methods and attributes are skipped.
+     *
+     * @param bytes the complete class file
+     * @return the parsed header
+     * @throws IllegalArgumentException if bytes is not a valid class file
+     */
+    static ClassHeader parse(byte[] bytes) {
+        Preconditions.checkNotNull(bytes, "Bytes");
+        try {
+            return new Parser(bytes).parse();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated class file", e);
+        }
+    }
+
+    /**
+     * Offset based class file reader which only decodes the strings it needs.
+     */
+    private static final class Parser {
+
+        private final byte[] bytes;
+
+        private int position;
+
+        // offset of every constant pool entry, 0 for unused slots
+        private int[] offsets;
+
+        Parser(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        ClassHeader parse() {
+            if (readInt() != MAGIC) {
+                throw new IllegalArgumentException("not a class file");
+            }
+            // minor and major version
+            position += 4;
+
+            final int count = readUnsignedShort();
+            offsets = new int[count];
+            for (int i = 1; i < count; i++) {
+                offsets[i] = position;
+                final int tag = bytes[position++];
+                switch (tag) {
+                    case 1:
+                        // utf8
+                        position += 2 + readUnsignedShortAt(position);
+                        break;
+                    case 3:
+                    case 4:
+                    case 9:
+                    case 10:
+                    case 11:
+                    case 12:
+                    case 17:
+                    case 18:
+                        position += 4;
+                        break;
+                    case 5:
+                    case 6:
+                        // long and double take two slots
+                        position += 8;
+                        i++;
+                        break;
+                    case 7:
+                    case 8:
+                    case 16:
+                    case 19:
+                    case 20:
+                        position += 2;
+                        break;
+                    case 15:
+                        position += 3;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown constant pool tag " + tag);
+                }
+            }
+
+            final int access = readUnsignedShort();
+            final String name = className(readUnsignedShort());
+            final String superName = className(readUnsignedShort());
+
+            final int interfaceCount = readUnsignedShort();
+            final ImmutableList.Builder<String> interfaces = ImmutableList.builder();
+            for (int i = 0; i < interfaceCount; i++) {
+                interfaces.add(className(readUnsignedShort()));
+            }
+
+            final boolean concrete = (access & (ACC_INTERFACE | ACC_ABSTRACT)) == 0;
+            return new ClassHeader(name, superName, interfaces.build(), concrete);
+        }
+
+        private String className(int index) {
+            if (index == 0) {
+                return null;
+            }
+            // class entry: tag, name index
+            final int utf8 = offsets[readUnsignedShortAt(offsets[index] + 1)];
+            final int length = readUnsignedShortAt(utf8 + 1);
+            try {
+                // binary names of classes never contain modified utf8 special cases
+                return new String(bytes, utf8 + 3, length, "UTF-8").replace('/', '.');
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private int readUnsignedShortAt(int offset) {
+            return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+        }
+
+        private int readUnsignedShort() {
+            final int value = readUnsignedShortAt(position);
+            position += 2;
+            return value;
+        }
+
+        private int readInt() {
+            return (readUnsignedShort() << 16) | readUnsignedShort();
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * Maps the full names of commands and packages to the files generated for them.
+ * Every file rendered by {@link Generator#generateFile(String, String, Object)} with a
+ * {@link GenCommand} or {@link GenPackage} as arguments is recorded, so schemes can
+ * emit autoloaders which load stubs lazily. Entries are available as soon as their file
+ * has been generated.
+ */
+public final class ClassMap {
+
+    public static final String COMMAND = "command";
+
+    public static final String PACKAGE = "package";
+
+    private static final int VERSION = 1;
+
+    private final Map<String, Entry> entries = Maps.newLinkedHashMap();
+
+    ClassMap() {
+
+    }
+
+    /**
+     * Records the file generated for the given arguments. Other arguments are ignored.
+     *
+     * @param args the arguments the file was rendered with
+     * @param file the file name relative to the target directory
+     * @param size the file size in bytes
+     */
+    void record(Object args, String file, long size) {
+        if (args instanceof GenCommand) {
+            final String name = GenCommand.class.cast(args).getFullName();
+            entries.put(name, new Entry(name, COMMAND, file, size));
+        } else if (args instanceof GenPackage) {
+            final String name = GenPackage.class.cast(args).getFullName();
+            entries.put(name, new Entry(name, PACKAGE, file, size));
+        }
+    }
+
+    /**
+     * All recorded entries in the order their files were generated.
+     *
+     * @return all entries
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Looks up the entry of a command or package.
+     *
+     * @param name the full name
+     * @return the entry or null if no file was generated for it
+     */
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Renders this map as JSON, e.g. {"version":1,"entries":{"com.acme.Cmd":{"type":"command",
+     * "file":"com/acme/Cmd.php","size":512}}}.
+     *
+     * @return the JSON document
+     */
+    public String toJson() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{\"version\":").append(VERSION).append(",\"entries\":{");
+        boolean first = true;
+        for (Entry entry : entries.values()) {
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            builder.append(Json.quote(entry.name)).append(":{\"type\":").append(Json.quote(entry.type));
+            builder.append(",\"file\":").append(Json.quote(entry.file));
+            builder.append(",\"size\":").append(entry.size).append('}');
+        }
+        builder.append("}}\n");
+        return builder.toString();
+    }
+
+    /**
+     * The generated file of one command or package.
+     */
+    public static final class Entry {
+
+        private final String name;
+
+        private final String type;
+
+        private final String file;
+
+        private final long size;
+
+        Entry(String name, String type, String file, long size) {
+            this.name = Preconditions.checkNotNull(name, "Name");
+            this.type = Preconditions.checkNotNull(type, "Type");
+            this.file = Preconditions.checkNotNull(file, "File");
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The kind of the entry, {@link ClassMap#COMMAND} or {@link ClassMap#PACKAGE}.
+         *
+         * @return the type
+         */
+        public String getType() {
+            return type;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Collects the content of one generated file for an {@link Emitter}. Text is appended
+ * to a reused buffer and encoded once when the file is written. Lines started with
+ * {@link #line(CharSequence)} or after {@link #newline()} are indented by the current
+ * indentation; appended text must not contain line breaks for indentation to apply.
+ */
+public final class CodeWriter {
+
+    private static final String INDENTATION = "    ";
+
+    private final StringBuilder buffer;
+
+    private String fileName;
+
+    private Object args;
+
+    private long start;
+
+    private int depth;
+
+    private boolean lineStart;
+
+    CodeWriter(int capacity) {
+        this.buffer = new StringBuilder(capacity);
+    }
+
+    /**
+     * Prepares this writer for a new file.
+     *
+     * @param generatedFileName the file name relative to the target directory
+     * @param fileArgs the model the file is generated for
+     */
+    void reset(String generatedFileName, Object fileArgs) {
+        this.fileName = Preconditions.checkNotNull(generatedFileName, "FileName");
+        this.args = fileArgs;
+        this.start = System.nanoTime();
+        this.depth = 0;
+        this.lineStart = true;
+        buffer.setLength(0);
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    Object getArgs() {
+        return args;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    CharSequence getContent() {
+        return buffer;
+    }
+
+    private void beginLine() {
+        if (lineStart) {
+            for (int i = 0; i < depth; i++) {
+                buffer.append(INDENTATION);
+            }
+            lineStart = false;
+        }
+    }
+
+    /**
+     * Appends text to the current line.
+     *
+     * @param text the text
+     * @return this writer
+     */
+    public CodeWriter append(CharSequence text) {
+        if (text.length() > 0) {
+            beginLine();
+            buffer.append(text);
+        }
+        return this;
+    }
+
+    public CodeWriter append(char c) {
+        beginLine();
+        buffer.append(c);
+        return this;
+    }
+
+    public CodeWriter append(long value) {
+        beginLine();
+        buffer.append(value);
+        return this;
+    }
+
+    /**
+     * Appends text and ends the line.
+     *
+     * @param text the text
+     * @return this writer
+     */
+    public CodeWriter line(CharSequence text) {
+        return append(text).newline();
+    }
+
+    public CodeWriter newline() {
+        buffer.append('\n');
+        lineStart = true;
+        return this;
+    }
+
+    /**
+     * Increases the indentation of all following lines.
+     *
+     * @return this writer
+     */
+    public CodeWriter indent() {
+        depth++;
+        return this;
+    }
+
+    /**
+     * Decreases the indentation of all following lines.
+     *
+     * @return this writer
+     * @throws IllegalStateException if not indented
+     */
+    public CodeWriter outdent() {
+        Preconditions.checkState(depth > 0, "not indented");
+        depth--;
+        return this;
+    }
+
+}
@@ -0,0 +1,485 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The compile time index of all {@link de.cosmocode.palava.ipc.IpcCommand}s of a
+ * classpath element, written by the {@link CommandIndexProcessor} and read by the
+ * "index" discovery. The index is a versioned, tab separated UTF-8 text file with one
+ * line per command followed by one line per param, return, throw and meta annotation,
+ * every meta annotation line is followed by one line per attribute. The discovery builds
+ * the {@link InspectedCommand}s from it without loading any class.
+ */
+final class CommandIndex {
+
+    /**
+     * Location of the index within a classpath element.
+     */
+    static final String LOCATION = "META-INF/ipcstub/commands.index";
+
+    private static final String VERSION = "ipcstub-index 3";
+
+    // without canonical names, which are derived from the binary names instead
+    private static final String PREVIOUS_VERSION = "ipcstub-index 2";
+
+    private static final String COMMAND = "C";
+    private static final String PARAM = "P";
+    private static final String RETURN = "R";
+    private static final String THROW = "T";
+    private static final String META = "M";
+    private static final String ATTRIBUTE = "A";
+
+    private static final char SEPARATOR = '\t';
+
+    private CommandIndex() {
+        
+    }
+
+    /**
+     * Reads the index of a classpath element.
+     *
+     * @param location a directory or jar file
+     * @return all indexed commands by binary name, empty if the element has no index
+     * @throws IOException if reading failed
+     */
+    static SortedMap<String, Entry> read(File location) throws IOException {
+        if (location.isDirectory()) {
+            final File file = new File(location, LOCATION);
+            if (!file.isFile()) {
+                return Maps.newTreeMap();
+            }
+            final InputStream stream = new FileInputStream(file);
+            try {
+                return read(stream);
+            } finally {
+                IOUtils.closeQuietly(stream);
+            }
+        } else if (location.isFile()) {
+            final ZipFile zip = new ZipFile(location);
+            try {
+                final ZipEntry entry = zip.getEntry(LOCATION);
+                if (entry == null) {
+                    return Maps.newTreeMap();
+                }
+                final InputStream stream = zip.getInputStream(entry);
+                try {
+                    return read(stream);
+                } finally {
+                    IOUtils.closeQuietly(stream);
+                }
+            } finally {
+                zip.close();
+            }
+        } else {
+            return Maps.newTreeMap();
+        }
+    }
+
+    /**
+     * Reads an index.
+     *
+     * @param stream the index content
+     * @return all indexed commands by binary name
+     * @throws IOException if reading failed or the index is invalid
+     */
+    static SortedMap<String, Entry> read(InputStream stream) throws IOException {
+        final SortedMap<String, Entry> entries = Maps.newTreeMap();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        final String version = reader.readLine();
+        if (!VERSION.equals(version) && !PREVIOUS_VERSION.equals(version)) {
+            throw new IOException("unsupported index version");
+        }
+
+        Entry current = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final String[] parts = line.split(String.valueOf(SEPARATOR), -1);
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = unescape(parts[i]);
+            }
+            try {
+                if (COMMAND.equals(parts[0])) {
+                    final String canonicalName = VERSION.equals(version) ? parts[4] : parts[1].replace('$', '.');
+                    current = new Entry(parts[1], canonicalName, parts[3], "1".equals(parts[2]));
+                    entries.put(current.getName(), current);
+                } else if (current == null) {
+                    throw new IOException("invalid index line: " + line);
+                } else if (PARAM.equals(parts[0])) {
+                    current.addParam(new ParamEntry(parts[1], parts[2], parts[3], "1".equals(parts[4]), parts[5]));
+                } else if (RETURN.equals(parts[0])) {
+                    current.addReturn(new ReturnEntry(parts[1], parts[2]));
+                } else if (THROW.equals(parts[0])) {
+                    current.addThrow(new ThrowEntry(parts[1], parts[2]));
+                } else if (META.equals(parts[0])) {
+                    current.addMeta(new MetaEntry(parts[1], parts[2]));
+                } else if (ATTRIBUTE.equals(parts[0]) && !current.getMetas().isEmpty()) {
+                    final List<MetaEntry> metas = current.getMetas();
+                    metas.get(metas.size() - 1).addAttribute(parts[1], parts[2], parts[3]);
+                } else {
+                    throw new IOException("invalid index line: " + line);
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new IOException("invalid index line: " + line);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Writes an index.
+     *
+     * @param entries all commands to write
+     * @param writer the target
+     * @throws IOException if writing failed
+     */
+    static void write(Iterable<Entry> entries, Writer writer) throws IOException {
+        final Joiner joiner = Joiner.on(SEPARATOR);
+        writer.write(VERSION);
+        writer.write('\n');
+        for (Entry entry : entries) {
+            writer.write(joiner.join(COMMAND, escape(entry.getName()), entry.isDeprecated() ? "1" : "0", 
+                escape(entry.getDescription()), escape(entry.getCanonicalName())));
+            writer.write('\n');
+            for (ParamEntry param : entry.getParams()) {
+                writer.write(joiner.join(PARAM, escape(param.getName()), escape(param.getDescription()), 
+                    escape(param.getType()), param.isOptional() ? "1" : "0", escape(param.getDefaultValue())));
+                writer.write('\n');
+            }
+            for (ReturnEntry returnEntry : entry.getReturns()) {
+                writer.write(joiner.join(RETURN, escape(returnEntry.getName()), 
+                    escape(returnEntry.getDescription())));
+                writer.write('\n');
+            }
+            for (ThrowEntry throwEntry : entry.getThrows()) {
+                writer.write(joiner.join(THROW, escape(throwEntry.getName()), escape(throwEntry.getDescription())));
+                writer.write('\n');
+            }
+            for (MetaEntry meta : entry.getMetas()) {
+                writer.write(joiner.join(META, escape(meta.getType()), escape(meta.getSimpleName())));
+                writer.write('\n');
+                for (Map.Entry<String, String> attribute : meta.getAttributes().entrySet()) {
+                    writer.write(joiner.join(ATTRIBUTE, escape(attribute.getKey()), 
+                        escape(meta.getAttributeTypes().get(attribute.getKey())), escape(attribute.getValue())));
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        final StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') == -1) {
+            return value;
+        }
+        final StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                final char next = value.charAt(++i);
+                switch (next) {
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    default:
+                        builder.append(next);
+                }
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * An indexed command.
+     */
+    static final class Entry {
+
+        private final String name;
+
+        private final String canonicalName;
+
+        private final String description;
+
+        private final boolean deprecated;
+
+        private final List<ParamEntry> params = Lists.newArrayList();
+
+        private final List<ReturnEntry> returns = Lists.newArrayList();
+
+        private final List<ThrowEntry> throwables = Lists.newArrayList();
+
+        private final List<MetaEntry> metas = Lists.newArrayList();
+
+        Entry(String name, String canonicalName, String description, boolean deprecated) {
+            this.name = Preconditions.checkNotNull(name, "Name");
+            this.canonicalName = Preconditions.checkNotNull(canonicalName, "CanonicalName");
+            this.description = description == null ? "" : description;
+            this.deprecated = deprecated;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The canonical name, which differs from the binary name for member classes,
+         * e.g. "com.acme.Outer.Inner".
+         *
+         * @return the canonical name
+         */
+        public String getCanonicalName() {
+            return canonicalName;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public boolean isDeprecated() {
+            return deprecated;
+        }
+
+        public List<ParamEntry> getParams() {
+            return params;
+        }
+
+        public List<ReturnEntry> getReturns() {
+            return returns;
+        }
+
+        public List<ThrowEntry> getThrows() {
+            return throwables;
+        }
+
+        public List<MetaEntry> getMetas() {
+            return metas;
+        }
+
+        void addParam(ParamEntry param) {
+            params.add(param);
+        }
+
+        void addReturn(ReturnEntry returnEntry) {
+            returns.add(returnEntry);
+        }
+
+        void addThrow(ThrowEntry throwEntry) {
+            throwables.add(throwEntry);
+        }
+
+        void addMeta(MetaEntry meta) {
+            metas.add(meta);
+        }
+
+    }
+
+    /**
+     * An indexed {@link de.cosmocode.palava.ipc.IpcCommand.Param}.
+     */
+    static final class ParamEntry {
+
+        private final String name;
+
+        private final String description;
+
+        private final String type;
+
+        private final boolean optional;
+
+        private final String defaultValue;
+
+        ParamEntry(String name, String description, String type, boolean optional, String defaultValue) {
+            this.name = name;
+            this.description = description;
+            this.type = type;
+            this.optional = optional;
+            this.defaultValue = defaultValue;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public boolean isOptional() {
+            return optional;
+        }
+
+        public String getDefaultValue() {
+            return defaultValue;
+        }
+
+    }
+
+    /**
+     * An indexed {@link de.cosmocode.palava.ipc.IpcCommand.Return}.
+     */
+    static final class ReturnEntry {
+
+        private final String name;
+
+        private final String description;
+
+        ReturnEntry(String name, String description) {
+            this.name = name;
+            this.description = description;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+    }
+
+    /**
+     * An indexed {@link de.cosmocode.palava.ipc.IpcCommand.Throw}, named by the
+     * binary name of the thrown class.
+     */
+    static final class ThrowEntry {
+
+        private final String name;
+
+        private final String description;
+
+        ThrowEntry(String name, String description) {
+            this.name = name;
+            this.description = description;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+    }
+
+    /**
+     * An indexed annotation marked with {@link de.cosmocode.palava.ipc.IpcCommand.Meta}.
+     * Attributes are kept as strings like in {@link InspectedCommand#attributesOf(java.lang.annotation.Annotation)},
+     * their types by canonical name, e.g. "long" or "java.lang.String[]".
+     */
+    static final class MetaEntry {
+
+        private final String type;
+
+        private final String simpleName;
+
+        private final SortedMap<String, String> attributes = Maps.newTreeMap();
+
+        private final SortedMap<String, String> attributeTypes = Maps.newTreeMap();
+
+        MetaEntry(String type, String simpleName) {
+            this.type = Preconditions.checkNotNull(type, "Type");
+            this.simpleName = Preconditions.checkNotNull(simpleName, "SimpleName");
+        }
+
+        /**
+         * The binary name of the annotation type.
+         *
+         * @return the type name
+         */
+        public String getType() {
+            return type;
+        }
+
+        public String getSimpleName() {
+            return simpleName;
+        }
+
+        public SortedMap<String, String> getAttributes() {
+            return attributes;
+        }
+
+        public SortedMap<String, String> getAttributeTypes() {
+            return attributeTypes;
+        }
+
+        void addAttribute(String name, String attributeType, String value) {
+            attributes.put(name, value);
+            attributeTypes.put(name, attributeType);
+        }
+
+    }
+
+}
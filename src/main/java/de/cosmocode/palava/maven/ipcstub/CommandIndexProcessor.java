@@ -0,0 +1,299 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import de.cosmocode.palava.ipc.IpcCommand;
+import de.cosmocode.palava.ipc.IpcCommand.Description;
+import de.cosmocode.palava.ipc.IpcCommand.Meta;
+import de.cosmocode.palava.ipc.IpcCommand.Param;
+import de.cosmocode.palava.ipc.IpcCommand.Params;
+import de.cosmocode.palava.ipc.IpcCommand.Return;
+import de.cosmocode.palava.ipc.IpcCommand.Returns;
+import de.cosmocode.palava.ipc.IpcCommand.Throw;
+import de.cosmocode.palava.ipc.IpcCommand.Throws;
+
+/**
+ * Records all concrete {@link IpcCommand} implementations and their meta information
+ * while javac runs and writes them to {@link CommandIndex#LOCATION} in the class output.
+ * Entries of classes which were not part of an incremental compilation are kept as long
+ * as the class still exists.
+ * <p>
+ * The processor is registered as a service of this plugin's jar. Add the plugin to the
+ * processor path of the compiler instead of the project's dependencies, so neither
+ * maven nor velocity end up on the compile classpath:
+ * </p>
+ * <pre>
+ * &lt;plugin&gt;
+ *   &lt;artifactId&gt;maven-compiler-plugin&lt;/artifactId&gt;
+ *   &lt;configuration&gt;
+ *     &lt;annotationProcessorPaths&gt;
+ *       &lt;path&gt;
+ *         &lt;groupId&gt;de.cosmocode.palava&lt;/groupId&gt;
+ *         &lt;artifactId&gt;maven-ipcstub-generator&lt;/artifactId&gt;
+ *         &lt;version&gt;...&lt;/version&gt;
+ *       &lt;/path&gt;
+ *     &lt;/annotationProcessorPaths&gt;
+ *   &lt;/configuration&gt;
+ * &lt;/plugin&gt;
+ * </pre>
+ * <p>
+ * The processor itself only requires palava-ipc, guava and commons-io, which are
+ * resolved transitively from the processor path.
+ * </p>
+ */
+@SupportedAnnotationTypes("*")
+public final class CommandIndexProcessor extends AbstractProcessor {
+
+    private final SortedMap<String, CommandIndex.Entry> found = Maps.newTreeMap();
+
+    // all types compiled in this run, commands or not
+    private final Set<String> compiled = Sets.newHashSet();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeIndex();
+            return false;
+        }
+
+        final Elements elements = processingEnv.getElementUtils();
+        final TypeElement command = elements.getTypeElement(IpcCommand.class.getCanonicalName());
+        if (command == null) {
+            // palava-ipc is not on the classpath
+            return false;
+        }
+
+        final TypeMirror commandType = processingEnv.getTypeUtils().erasure(command.asType());
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            inspect(type, commandType);
+        }
+        return false;
+    }
+
+    private void inspect(TypeElement type, TypeMirror commandType) {
+        final Types types = processingEnv.getTypeUtils();
+        final String name = processingEnv.getElementUtils().getBinaryName(type).toString();
+        compiled.add(name);
+
+        if (type.getKind() == ElementKind.CLASS && !type.getModifiers().contains(Modifier.ABSTRACT) && 
+            types.isAssignable(types.erasure(type.asType()), commandType)) {
+            found.put(name, createEntry(name, type));
+        }
+
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            inspect(nested, commandType);
+        }
+    }
+
+    private CommandIndex.Entry createEntry(String name, TypeElement type) {
+        final Description description = type.getAnnotation(Description.class);
+        final CommandIndex.Entry entry = new CommandIndex.Entry(name, type.getQualifiedName().toString(), 
+            description == null ? "" : description.value(), type.getAnnotation(Deprecated.class) != null);
+
+        final Param param = type.getAnnotation(Param.class);
+        if (param != null) {
+            entry.addParam(createParam(param));
+        }
+        final Params params = type.getAnnotation(Params.class);
+        if (params != null) {
+            for (Param p : params.value()) {
+                entry.addParam(createParam(p));
+            }
+        }
+
+        final Return returnAnnotation = type.getAnnotation(Return.class);
+        if (returnAnnotation != null) {
+            entry.addReturn(new CommandIndex.ReturnEntry(returnAnnotation.name(), returnAnnotation.description()));
+        }
+        final Returns returns = type.getAnnotation(Returns.class);
+        if (returns != null) {
+            for (Return r : returns.value()) {
+                entry.addReturn(new CommandIndex.ReturnEntry(r.name(), r.description()));
+            }
+        }
+
+        final Throw throwAnnotation = type.getAnnotation(Throw.class);
+        if (throwAnnotation != null) {
+            entry.addThrow(new CommandIndex.ThrowEntry(getName(throwAnnotation), throwAnnotation.description()));
+        }
+        final Throws throwables = type.getAnnotation(Throws.class);
+        if (throwables != null) {
+            for (Throw t : throwables.value()) {
+                entry.addThrow(new CommandIndex.ThrowEntry(getName(t), t.description()));
+            }
+        }
+
+        addMetas(entry, type);
+        return entry;
+    }
+
+    private void addMetas(CommandIndex.Entry entry, TypeElement type) {
+        final Elements elements = processingEnv.getElementUtils();
+        final Types types = processingEnv.getTypeUtils();
+        // includes inherited annotations, just like Class.getAnnotations()
+        for (AnnotationMirror mirror : elements.getAllAnnotationMirrors(type)) {
+            final TypeElement annotation = (TypeElement) mirror.getAnnotationType().asElement();
+            if (annotation.getAnnotation(Meta.class) == null) {
+                continue;
+            }
+            final CommandIndex.MetaEntry meta = new CommandIndex.MetaEntry(
+                elements.getBinaryName(annotation).toString(), annotation.getSimpleName().toString());
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value 
+                : elements.getElementValuesWithDefaults(mirror).entrySet()) {
+                final ExecutableElement method = value.getKey();
+                meta.addAttribute(method.getSimpleName().toString(), 
+                    types.erasure(method.getReturnType()).toString(), format(value.getValue().getValue()));
+            }
+            entry.addMeta(meta);
+        }
+    }
+
+    // formats values like InspectedCommand.attributesOf() does for loaded annotations
+    private String format(Object value) {
+        if (value instanceof TypeMirror) {
+            final Element element = processingEnv.getTypeUtils().asElement((TypeMirror) value);
+            if (element instanceof TypeElement) {
+                return processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString();
+            } else {
+                return value.toString();
+            }
+        } else if (value instanceof VariableElement) {
+            // enum constants
+            return ((VariableElement) value).getSimpleName().toString();
+        } else if (value instanceof List<?>) {
+            final List<String> elements = Lists.newArrayList();
+            for (Object element : (List<?>) value) {
+                elements.add(format(((AnnotationValue) element).getValue()));
+            }
+            return elements.toString();
+        } else {
+            return String.valueOf(value);
+        }
+    }
+
+    private CommandIndex.ParamEntry createParam(Param param) {
+        return new CommandIndex.ParamEntry(param.name(), param.description(), param.type(), 
+            param.optional(), param.defaultValue());
+    }
+
+    private String getName(Throw throwAnnotation) {
+        try {
+            return throwAnnotation.name().getName();
+        } catch (MirroredTypeException e) {
+            // the usual case, classes of the compiled sources are not loaded
+            final Element element = processingEnv.getTypeUtils().asElement(e.getTypeMirror());
+            if (element instanceof TypeElement) {
+                return processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString();
+            } else {
+                return e.getTypeMirror().toString();
+            }
+        }
+    }
+
+    private void writeIndex() {
+        final SortedMap<String, CommandIndex.Entry> entries = Maps.newTreeMap();
+        final boolean existed = readPreviousIndex(entries);
+        entries.putAll(found);
+
+        if (entries.isEmpty() && !existed) {
+            return;
+        }
+
+        Writer writer = null;
+        try {
+            final FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, 
+                "", CommandIndex.LOCATION);
+            writer = new OutputStreamWriter(index.openOutputStream(), "UTF-8");
+            CommandIndex.write(entries.values(), writer);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, 
+                "cannot write ipcstub command index: " + e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    private boolean readPreviousIndex(Map<String, CommandIndex.Entry> entries) {
+        final SortedMap<String, CommandIndex.Entry> previous;
+        InputStream stream = null;
+        try {
+            final FileObject index = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, 
+                "", CommandIndex.LOCATION);
+            stream = index.openInputStream();
+            previous = CommandIndex.read(stream);
+        } catch (IOException e) {
+            // no previous compilation
+            return false;
+        } catch (IllegalArgumentException e) {
+            return false;
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+
+        final Elements elements = processingEnv.getElementUtils();
+        for (CommandIndex.Entry entry : previous.values()) {
+            // recompiled types are indexed again, deleted ones are dropped
+            if (!compiled.contains(entry.getName()) && 
+                elements.getTypeElement(entry.getCanonicalName()) != null) {
+                entries.put(entry.getName(), entry);
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,405 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import de.cosmocode.palava.maven.ipcstub.InspectedCommand.MetaInfo;
+import de.cosmocode.palava.maven.ipcstub.InspectedCommand.ParamInfo;
+import de.cosmocode.palava.maven.ipcstub.InspectedCommand.ReturnInfo;
+import de.cosmocode.palava.maven.ipcstub.InspectedCommand.ThrowInfo;
+
+/**
+ * The complete command model of one generator, written as JSON and as a binary file
+ * which can be memory mapped by runtime services.
+ * <p>
+ * All numbers of the binary form are big endian, strings are referenced by their u4
+ * index within the string table:
+ * </p>
+ * <pre>
+ * header     u4 magic "IPCM", u2 version, u2 reserved,
+ *            u4 string count, u4 string table offset,
+ *            u4 package count, u4 package table offset,
+ *            u4 command count, u4 command table offset
+ * strings    u4 offset per string, each string is a u2 length followed by utf-8 bytes;
+ *            strings are sorted by their UTF-16 code units like String.compareTo, so indices
+ *            compare like java strings; this differs from the order of the utf-8 bytes only
+ *            between supplementary characters and characters from U+E000 to U+FFFF
+ * packages   per package: u4 name, u4 command count, u4 command index per command
+ * commands   u4 offset per command, ordered by name to allow binary searches
+ * command    u4 name, u4 package, u4 description, u1 flags (1 = deprecated),
+ *            u2 count, params: u4 name, u4 description, u4 type, u1 optional, u4 default value,
+ *            u2 count, returns: u4 name, u4 description,
+ *            u2 count, throws: u4 class name, u4 description,
+ *            u2 count, meta annotations: u4 type, u2 count, attributes: u4 name, u4 value
+ * </pre>
+ */
+final class CommandManifest {
+
+    static final int MAGIC = 0x4950434D;
+
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    // strings are prefixed by a u2 length
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    // package name to command names
+    private final SortedMap<String, SortedSet<String>> packages = Maps.newTreeMap();
+
+    private final SortedMap<String, Command> commands = Maps.newTreeMap();
+
+    /**
+     * Adds the commands of the given package, subpackages are added as well.
+     *
+     * @param pkg the package
+     */
+    void add(GenPackage pkg) {
+        for (GenCommand command : pkg.getCommands()) {
+            SortedSet<String> names = packages.get(pkg.getFullName());
+            if (names == null) {
+                names = Sets.newTreeSet();
+                packages.put(pkg.getFullName(), names);
+            }
+            names.add(command.getFullName());
+            commands.put(command.getFullName(), new Command(pkg.getFullName(), command.getMeta()));
+        }
+        for (GenPackage child : pkg.getPackages()) {
+            add(child);
+        }
+    }
+
+    /**
+     * Renders this manifest as JSON.
+     *
+     * @return the JSON document
+     */
+    String toJson() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{\"version\":").append(VERSION).append(",\"packages\":[");
+        boolean firstPackage = true;
+        for (Map.Entry<String, SortedSet<String>> pkg : packages.entrySet()) {
+            if (!firstPackage) {
+                builder.append(',');
+            }
+            firstPackage = false;
+            builder.append("{\"name\":").append(Json.quote(pkg.getKey())).append(",\"commands\":[");
+            boolean firstCommand = true;
+            for (String name : pkg.getValue()) {
+                if (!firstCommand) {
+                    builder.append(',');
+                }
+                firstCommand = false;
+                commands.get(name).toJson(builder);
+            }
+            builder.append("]}");
+        }
+        builder.append("]}\n");
+        return builder.toString();
+    }
+
+    /**
+     * Renders this manifest in its binary form.
+     *
+     * @return the complete binary file
+     * @throws IOException should not happen
+     * @throws MojoExecutionException if a string of a command is too long for the binary form
+     */
+    byte[] toBinary() throws IOException, MojoExecutionException {
+        // index every string in sorted order
+        final SortedSet<String> sorted = Sets.newTreeSet();
+        sorted.addAll(packages.keySet());
+        for (Command command : commands.values()) {
+            final SortedSet<String> values = Sets.newTreeSet();
+            command.collect(values);
+            for (String value : values) {
+                if (value.getBytes("UTF-8").length > MAX_STRING_LENGTH) {
+                    throw new MojoExecutionException("cannot write manifest: a string of command " + 
+                        command.name + " is longer than " + MAX_STRING_LENGTH + " utf-8 bytes");
+                }
+            }
+            sorted.addAll(values);
+        }
+        final Map<String, Integer> strings = Maps.newHashMap();
+        for (String value : sorted) {
+            strings.put(value, Integer.valueOf(strings.size()));
+        }
+        final Map<String, Integer> commandIndices = Maps.newHashMap();
+        for (String name : commands.keySet()) {
+            commandIndices.put(name, Integer.valueOf(commandIndices.size()));
+        }
+
+        final byte[] stringData = encodeStrings(sorted);
+        final int stringTableOffset = HEADER_SIZE;
+        final int packageTableOffset = stringTableOffset + 4 * sorted.size() + stringData.length;
+
+        final ByteArrayOutputStream packageBytes = new ByteArrayOutputStream();
+        final DataOutputStream packageData = new DataOutputStream(packageBytes);
+        for (Map.Entry<String, SortedSet<String>> pkg : packages.entrySet()) {
+            packageData.writeInt(strings.get(pkg.getKey()).intValue());
+            packageData.writeInt(pkg.getValue().size());
+            for (String name : pkg.getValue()) {
+                packageData.writeInt(commandIndices.get(name).intValue());
+            }
+        }
+        packageData.flush();
+
+        final int commandTableOffset = packageTableOffset + packageBytes.size();
+        final ByteArrayOutputStream commandBytes = new ByteArrayOutputStream();
+        final DataOutputStream commandData = new DataOutputStream(commandBytes);
+        final int[] commandOffsets = new int[commands.size()];
+        final int commandDataOffset = commandTableOffset + 4 * commands.size();
+        int i = 0;
+        for (Command command : commands.values()) {
+            commandOffsets[i++] = commandDataOffset + commandData.size();
+            command.write(commandData, strings);
+        }
+        commandData.flush();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(commandDataOffset + commandBytes.size());
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(0);
+        out.writeInt(sorted.size());
+        out.writeInt(stringTableOffset);
+        out.writeInt(packages.size());
+        out.writeInt(packageTableOffset);
+        out.writeInt(commands.size());
+        out.writeInt(commandTableOffset);
+
+        // string offsets point behind the table
+        int stringOffset = stringTableOffset + 4 * sorted.size();
+        for (String value : sorted) {
+            out.writeInt(stringOffset);
+            stringOffset += 2 + value.getBytes("UTF-8").length;
+        }
+        out.write(stringData);
+        packageBytes.writeTo(out);
+        for (int offset : commandOffsets) {
+            out.writeInt(offset);
+        }
+        commandBytes.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeStrings(Iterable<String> values) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (String value : values) {
+            final byte[] encoded = value.getBytes("UTF-8");
+            out.writeShort(encoded.length);
+            out.write(encoded);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * The flattened model of one command.
+     */
+    private static final class Command {
+
+        private final String name;
+
+        private final String pkg;
+
+        private final String description;
+
+        private final boolean deprecated;
+
+        // name, description, type, default value
+        private final List<String[]> params;
+
+        private final List<Boolean> optionals;
+
+        // name, description
+        private final List<String[]> returns;
+
+        // class name, description
+        private final List<String[]> throwables;
+
+        private final List<String> metaTypes;
+
+        private final List<SortedMap<String, String>> metaAttributes;
+
+        Command(String pkg, InspectedCommand meta) {
+            this.name = meta.getName();
+            this.pkg = pkg;
+            this.description = nullToEmpty(meta.getDescription());
+            this.deprecated = meta.isDeprecated();
+
+            final ImmutableList.Builder<String[]> paramsBuilder = ImmutableList.builder();
+            final ImmutableList.Builder<Boolean> optionalsBuilder = ImmutableList.builder();
+            for (ParamInfo param : meta.getParams()) {
+                paramsBuilder.add(new String[] {
+                    param.name(), nullToEmpty(param.description()),
+                    nullToEmpty(param.type()), nullToEmpty(param.defaultValue())
+                });
+                optionalsBuilder.add(Boolean.valueOf(param.optional()));
+            }
+            this.params = paramsBuilder.build();
+            this.optionals = optionalsBuilder.build();
+
+            final ImmutableList.Builder<String[]> returnsBuilder = ImmutableList.builder();
+            for (ReturnInfo value : meta.getReturns()) {
+                returnsBuilder.add(new String[] {value.name(), nullToEmpty(value.description())});
+            }
+            this.returns = returnsBuilder.build();
+
+            final ImmutableList.Builder<String[]> throwsBuilder = ImmutableList.builder();
+            for (ThrowInfo value : meta.getThrows()) {
+                throwsBuilder.add(new String[] {value.name().getName(), nullToEmpty(value.description())});
+            }
+            this.throwables = throwsBuilder.build();
+
+            final ImmutableList.Builder<String> typesBuilder = ImmutableList.builder();
+            final ImmutableList.Builder<SortedMap<String, String>> attributesBuilder = ImmutableList.builder();
+            for (MetaInfo info : meta.getMetaInformations()) {
+                typesBuilder.add(info.getType().getName());
+                attributesBuilder.add(info.getAttributes());
+            }
+            this.metaTypes = typesBuilder.build();
+            this.metaAttributes = attributesBuilder.build();
+        }
+
+        void collect(SortedSet<String> strings) {
+            strings.add(name);
+            strings.add(pkg);
+            strings.add(description);
+            for (String[] values : params) {
+                strings.addAll(Arrays.asList(values));
+            }
+            for (String[] values : returns) {
+                strings.addAll(Arrays.asList(values));
+            }
+            for (String[] values : throwables) {
+                strings.addAll(Arrays.asList(values));
+            }
+            strings.addAll(metaTypes);
+            for (Map<String, String> attributes : metaAttributes) {
+                strings.addAll(attributes.keySet());
+                strings.addAll(attributes.values());
+            }
+        }
+
+        void write(DataOutputStream out, Map<String, Integer> strings) throws IOException {
+            out.writeInt(strings.get(name).intValue());
+            out.writeInt(strings.get(pkg).intValue());
+            out.writeInt(strings.get(description).intValue());
+            out.writeByte(deprecated ? 1 : 0);
+
+            out.writeShort(params.size());
+            for (int i = 0; i < params.size(); i++) {
+                final String[] param = params.get(i);
+                out.writeInt(strings.get(param[0]).intValue());
+                out.writeInt(strings.get(param[1]).intValue());
+                out.writeInt(strings.get(param[2]).intValue());
+                out.writeByte(optionals.get(i).booleanValue() ? 1 : 0);
+                out.writeInt(strings.get(param[3]).intValue());
+            }
+            writePairs(out, returns, strings);
+            writePairs(out, throwables, strings);
+
+            out.writeShort(metaTypes.size());
+            for (int i = 0; i < metaTypes.size(); i++) {
+                out.writeInt(strings.get(metaTypes.get(i)).intValue());
+                final Map<String, String> attributes = metaAttributes.get(i);
+                out.writeShort(attributes.size());
+                for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                    out.writeInt(strings.get(attribute.getKey()).intValue());
+                    out.writeInt(strings.get(attribute.getValue()).intValue());
+                }
+            }
+        }
+
+        private static void writePairs(DataOutputStream out, List<String[]> pairs, Map<String, Integer> strings)
+            throws IOException {
+
+            out.writeShort(pairs.size());
+            for (String[] pair : pairs) {
+                out.writeInt(strings.get(pair[0]).intValue());
+                out.writeInt(strings.get(pair[1]).intValue());
+            }
+        }
+
+        void toJson(StringBuilder builder) {
+            builder.append("{\"name\":").append(Json.quote(name));
+            builder.append(",\"description\":").append(Json.quote(description));
+            builder.append(",\"deprecated\":").append(deprecated);
+            builder.append(",\"params\":[");
+            for (int i = 0; i < params.size(); i++) {
+                final String[] param = params.get(i);
+                builder.append(i == 0 ? "" : ",");
+                builder.append("{\"name\":").append(Json.quote(param[0]));
+                builder.append(",\"description\":").append(Json.quote(param[1]));
+                builder.append(",\"type\":").append(Json.quote(param[2]));
+                builder.append(",\"optional\":").append(optionals.get(i));
+                builder.append(",\"defaultValue\":").append(Json.quote(param[3])).append('}');
+            }
+            builder.append("],\"returns\":");
+            pairsToJson(builder, returns);
+            builder.append(",\"throws\":");
+            pairsToJson(builder, throwables);
+            builder.append(",\"meta\":[");
+            for (int i = 0; i < metaTypes.size(); i++) {
+                builder.append(i == 0 ? "" : ",");
+                builder.append("{\"type\":").append(Json.quote(metaTypes.get(i))).append(",\"attributes\":{");
+                boolean first = true;
+                for (Map.Entry<String, String> attribute : metaAttributes.get(i).entrySet()) {
+                    builder.append(first ? "" : ",");
+                    first = false;
+                    builder.append(Json.quote(attribute.getKey())).append(':');
+                    builder.append(Json.quote(attribute.getValue()));
+                }
+                builder.append("}}");
+            }
+            builder.append("]}");
+        }
+
+        private static void pairsToJson(StringBuilder builder, List<String[]> pairs) {
+            builder.append('[');
+            for (int i = 0; i < pairs.size(); i++) {
+                builder.append(i == 0 ? "" : ",");
+                builder.append("{\"name\":").append(Json.quote(pairs.get(i)[0]));
+                builder.append(",\"description\":").append(Json.quote(pairs.get(i)[1])).append('}');
+            }
+            builder.append(']');
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Precompressed variants of generated files, written next to the original file
+ * so static servers can deliver them without compressing on every request.
+ */
+enum Compression {
+
+    /**
+     * Gzip, Content-Encoding "gzip". The header contains no timestamp, so unchanged
+     * files result in unchanged archives.
+     */
+    GZIP(".gz") {
+
+        @Override
+        OutputStream open(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out) {
+                
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+                
+            };
+        }
+
+    },
+
+    /**
+     * Zlib wrapped deflate, Content-Encoding "deflate".
+     */
+    DEFLATE(".deflate") {
+
+        @Override
+        OutputStream open(OutputStream out) {
+            return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_COMPRESSION)) {
+                
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // a custom deflater is not released by the stream
+                        def.end();
+                    }
+                }
+                
+            };
+        }
+
+    };
+
+    private final String suffix;
+
+    private Compression(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    abstract OutputStream open(OutputStream out) throws IOException;
+
+    /**
+     * Compresses the given content.
+     *
+     * @param content the uncompressed content
+     * @return the compressed content
+     * @throws IOException should not happen
+     */
+    byte[] compress(byte[] content) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2 + 64);
+        final OutputStream out = open(bytes);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Looks up a compression by its configured name, e.g. "gzip".
+     *
+     * @param name the name, case insensitive
+     * @return the compression
+     * @throws IllegalArgumentException if no such compression exists
+     */
+    static Compression forName(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+    }
+
+}
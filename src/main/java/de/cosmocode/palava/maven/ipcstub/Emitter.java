@@ -0,0 +1,51 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * A scheme implemented in Java instead of Velocity templates. Emitters are found using
+ * the {@link java.util.ServiceLoader} on the classpath of the project, by listing them in
+ * META-INF/services/de.cosmocode.palava.maven.ipcstub.Emitter.
+ * <p>
+ * An emitter walks the model of {@link Generator#getRootPackages()} or
+ * {@link Generator#getPackageStream()} and writes every file through
+ * {@link Generator#newFile(String, Object)} and {@link Generator#writeFile(CodeWriter)},
+ * so minification, compression, class maps and unchanged detection apply as usual.
+ * </p>
+ */
+public interface Emitter {
+
+    /**
+     * The scheme this emitter implements, e.g. "php".
+     *
+     * @return the scheme name
+     */
+    String getScheme();
+
+    /**
+     * Emits all files of the given generator.
+     *
+     * @param generator the generator providing the commands and the output
+     * @throws MojoExecutionException if execution failed
+     * @throws MojoFailureException if any fatal error occured
+     */
+    void emit(Generator generator) throws MojoExecutionException, MojoFailureException;
+
+}
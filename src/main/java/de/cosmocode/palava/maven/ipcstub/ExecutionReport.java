@@ -0,0 +1,247 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Collects timings and throughput of one execution. Phases are measured in nanoseconds,
+ * renderings of generated files are aggregated per generator and template. Includes are
+ * recorded as nested, their time is already part of the including file, and the whole
+ * rendering of a generator is a phase, e.g. "main". The report can be written as JSON and
+ * summarized in the log. All methods are safe to be called by concurrently running generators.
+ */
+final class ExecutionReport {
+
+    private static final int VERSION = 2;
+
+    private final Map<String, Long> phases = Maps.newLinkedHashMap();
+
+    private final Map<String, GeneratorStats> generators = Maps.newLinkedHashMap();
+
+    /**
+     * Records the duration of an execution wide phase.
+     *
+     * @param phase the phase name, e.g. "scanning"
+     * @param nanos the duration in nanoseconds
+     */
+    synchronized void phase(String phase, long nanos) {
+        final Long known = phases.get(phase);
+        phases.put(phase, known == null ? nanos : known.longValue() + nanos);
+    }
+
+    /**
+     * Records the duration of a phase of one generator.
+     *
+     * @param generator the generator name
+     * @param phase the phase name, e.g. "tree"
+     * @param nanos the duration in nanoseconds
+     */
+    synchronized void phase(String generator, String phase, long nanos) {
+        final Map<String, Long> generatorPhases = stats(generator).phases;
+        final Long known = generatorPhases.get(phase);
+        generatorPhases.put(phase, known == null ? nanos : known.longValue() + nanos);
+    }
+
+    /**
+     * Records the rendering of one generated file.
+     *
+     * @param generator the generator name
+     * @param template the template name
+     * @param nanos the render time in nanoseconds
+     * @param bytes the size of the rendered file, 0 if nothing was written
+     */
+    synchronized void render(String generator, String template, long nanos, long bytes) {
+        final TemplateStats templateStats = stats(generator, template, false);
+        templateStats.count++;
+        templateStats.nanos += nanos;
+        templateStats.bytes += bytes;
+    }
+
+    /**
+     * Records a template rendered within another one, e.g. a header included by every file.
+     *
+     * @param generator the generator name
+     * @param template the template name
+     * @param nanos the render time in nanoseconds
+     */
+    synchronized void include(String generator, String template, long nanos) {
+        final TemplateStats templateStats = stats(generator, template, true);
+        templateStats.count++;
+        templateStats.nanos += nanos;
+    }
+
+    private TemplateStats stats(String generator, String template, boolean nested) {
+        final GeneratorStats stats = stats(generator);
+        TemplateStats templateStats = stats.templates.get(template);
+        if (templateStats == null) {
+            templateStats = new TemplateStats(nested);
+            stats.templates.put(template, templateStats);
+        }
+        return templateStats;
+    }
+
+    private GeneratorStats stats(String generator) {
+        GeneratorStats stats = generators.get(generator);
+        if (stats == null) {
+            stats = new GeneratorStats();
+            generators.put(generator, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Logs a summary of all phases and generators.
+     *
+     * @param log the maven logger
+     */
+    synchronized void log(Log log) {
+        final StringBuilder builder = new StringBuilder("Timings:");
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            builder.append(' ').append(phase.getKey()).append('=').append(millis(phase.getValue())).append("ms");
+        }
+        log.info(builder);
+
+        for (Map.Entry<String, GeneratorStats> generator : generators.entrySet()) {
+            long files = 0;
+            long nanos = 0;
+            long bytes = 0;
+            for (TemplateStats stats : generator.getValue().templates.values()) {
+                // includes are part of the files including them
+                if (!stats.nested) {
+                    files += stats.count;
+                    nanos += stats.nanos;
+                    bytes += stats.bytes;
+                }
+            }
+            final StringBuilder line = new StringBuilder("    ").append(generator.getKey()).append(": ");
+            line.append(files).append(" files in ").append(millis(nanos)).append("ms, ");
+            line.append(bytes).append(" bytes");
+            for (Map.Entry<String, Long> phase : generator.getValue().phases.entrySet()) {
+                line.append(' ').append(phase.getKey()).append('=').append(millis(phase.getValue())).append("ms");
+            }
+            log.info(line);
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Writes the report as JSON.
+     *
+     * @param file the target file
+     * @throws IOException if writing failed
+     */
+    synchronized void write(File file) throws IOException {
+        final File parent = file.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("cannot create directory " + parent);
+        }
+
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write("{\"version\":" + VERSION + ",\"phases\":");
+            writePhases(writer, phases);
+            writer.write(",\"generators\":{");
+            boolean first = true;
+            for (Map.Entry<String, GeneratorStats> generator : generators.entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writer.write(Json.quote(generator.getKey()));
+                writer.write(":{\"phases\":");
+                writePhases(writer, generator.getValue().phases);
+                writer.write(",\"templates\":{");
+                boolean firstTemplate = true;
+                for (Map.Entry<String, TemplateStats> template : generator.getValue().templates.entrySet()) {
+                    if (!firstTemplate) {
+                        writer.write(',');
+                    }
+                    firstTemplate = false;
+                    final TemplateStats stats = template.getValue();
+                    writer.write(Json.quote(template.getKey()));
+                    writer.write(":{\"count\":" + stats.count + ",\"nanos\":" + stats.nanos + 
+                        ",\"bytes\":" + stats.bytes + ",\"nested\":" + stats.nested + "}");
+                }
+                writer.write("}}");
+            }
+            writer.write("}}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writePhases(Writer writer, Map<String, Long> values) throws IOException {
+        writer.write('{');
+        boolean first = true;
+        for (Map.Entry<String, Long> phase : values.entrySet()) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write(Json.quote(phase.getKey()));
+            writer.write(':');
+            writer.write(String.valueOf(phase.getValue()));
+        }
+        writer.write('}');
+    }
+
+    /**
+     * Collected numbers of one generator.
+     */
+    private static final class GeneratorStats {
+
+        private final Map<String, Long> phases = Maps.newLinkedHashMap();
+
+        private final Map<String, TemplateStats> templates = Maps.newLinkedHashMap();
+
+    }
+
+    /**
+     * Aggregated renderings of one template.
+     */
+    private static final class TemplateStats {
+
+        private final boolean nested;
+
+        private long count;
+
+        private long nanos;
+
+        private long bytes;
+
+        private TemplateStats(boolean nested) {
+            this.nested = nested;
+        }
+
+    }
+
+}
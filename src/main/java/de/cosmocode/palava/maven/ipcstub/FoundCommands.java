@@ -0,0 +1,166 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+
+import de.cosmocode.palava.ipc.IpcCommand;
+
+/**
+ * The commands found by the "bytecode" or "index" discovery. Indexed commands are
+ * inspected from their index entries, all others by loading their class from the
+ * context classloader.
+ */
+final class FoundCommands implements Function<String, InspectedCommand> {
+
+    private final SortedSet<String> names;
+
+    // null if the commands have to be loaded
+    private final SortedMap<String, CommandIndex.Entry> index;
+
+    private FoundCommands(SortedSet<String> names, SortedMap<String, CommandIndex.Entry> index) {
+        this.names = Collections.unmodifiableSortedSet(names);
+        this.index = index;
+    }
+
+    /**
+     * The found commands which have to be loaded for inspection.
+     *
+     * @param names the binary names of all commands
+     * @return the found commands
+     */
+    static FoundCommands loaded(SortedSet<String> names) {
+        return new FoundCommands(Preconditions.checkNotNull(names, "Names"), null);
+    }
+
+    /**
+     * The found commands which are inspected from their index entries.
+     *
+     * @param entries the index entries of all commands by binary name
+     * @return the found commands
+     */
+    static FoundCommands indexed(SortedMap<String, CommandIndex.Entry> entries) {
+        Preconditions.checkNotNull(entries, "Entries");
+        return new FoundCommands(Sets.newTreeSet(entries.keySet()), entries);
+    }
+
+    /**
+     * The binary names of all found commands, ordered by name.
+     *
+     * @return the names
+     */
+    SortedSet<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Checks whether inspecting requires loading classes.
+     *
+     * @return true if commands are inspected from the index, false if they are loaded
+     */
+    boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * Inspects one of the found commands.
+     *
+     * @param className the binary name of the command
+     * @return the descriptor
+     * @throws MojoExecutionException if the command can't be loaded
+     * @throws MojoFailureException if the command is invalid
+     */
+    InspectedCommand inspect(String className) throws MojoExecutionException, MojoFailureException {
+        try {
+            if (index != null) {
+                final CommandIndex.Entry entry = index.get(className);
+                Preconditions.checkState(entry != null, "%s was not found", className);
+                return InspectedCommand.inspectIndexed(entry);
+            }
+            final ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+            return InspectedCommand.inspectCommand(
+                Class.forName(className, false, classloader).asSubclass(IpcCommand.class));
+        } catch (ClassNotFoundException e) {
+            throw new MojoExecutionException("cannot load command " + className, e);
+        } catch (LinkageError e) {
+            throw new MojoExecutionException("cannot load command " + className, e);
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Inspects a command lazily, e.g. while streaming. Failures are wrapped into an
+     * {@link InspectionException}, see {@link #unwrap(RuntimeException)}.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public InspectedCommand apply(String className) {
+        try {
+            return inspect(className);
+        } catch (MojoExecutionException e) {
+            throw new InspectionException(e);
+        } catch (MojoFailureException e) {
+            throw new InspectionException(e);
+        }
+    }
+
+    /**
+     * Restores the failure of a lazy inspection from an exception thrown while
+     * rendering, e.g. by a template which iterated the package stream.
+     *
+     * @param e the exception thrown while rendering
+     * @throws MojoExecutionException if a command couldn't be loaded
+     * @throws MojoFailureException if a command is invalid
+     */
+    static void unwrap(RuntimeException e) throws MojoExecutionException, MojoFailureException {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InspectionException) {
+                final Throwable failure = cause.getCause();
+                if (failure instanceof MojoFailureException) {
+                    throw (MojoFailureException) failure;
+                } else {
+                    throw (MojoExecutionException) failure;
+                }
+            }
+        }
+    }
+
+    /**
+     * The failure of a lazy inspection.
+     */
+    static final class InspectionException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        InspectionException(Exception cause) {
+            super(cause.getMessage(), cause);
+        }
+
+    }
+
+}
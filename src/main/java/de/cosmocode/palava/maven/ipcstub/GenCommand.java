@@ -16,6 +16,8 @@
 
 package de.cosmocode.palava.maven.ipcstub;
 
+import com.google.common.base.Preconditions;
+
 import de.cosmocode.palava.ipc.IpcCommand;
 
 /**
@@ -25,22 +27,22 @@ import de.cosmocode.palava.ipc.IpcCommand;
  */
 public class GenCommand {
     
-    private final Class<? extends IpcCommand> command;
+    private final InspectedCommand meta;
 
-    protected GenCommand(Class<? extends IpcCommand> command) {
-        this.command = command;
+    protected GenCommand(InspectedCommand meta) {
+        this.meta = Preconditions.checkNotNull(meta, "Meta");
     }
 
     public String getName() {
-        return command.getSimpleName();
+        return meta.getSimpleName();
     }
 
     public String getFullName() {
-        return command.getName();
+        return meta.getName();
     }
 
     public InspectedCommand getMeta() {
-        return InspectedCommand.inspectCommand(command);
+        return meta;
     }
     
 }
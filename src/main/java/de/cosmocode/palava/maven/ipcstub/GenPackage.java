@@ -16,14 +16,22 @@
 
 package de.cosmocode.palava.maven.ipcstub;
 
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.maven.plugin.MojoExecutionException;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-
-import de.cosmocode.palava.ipc.IpcCommand;
+import com.google.common.collect.UnmodifiableIterator;
 
 /**
  * A small value object for commands and packages.
@@ -31,6 +39,17 @@ import de.cosmocode.palava.ipc.IpcCommand;
  * @author Tobias Sarnowski
  */
 public class GenPackage {
+
+    // groups class names by package, classes before subpackages
+    private static final Comparator<String> PACKAGE_ORDER = new Comparator<String>() {
+        
+        @Override
+        public int compare(String left, String right) {
+            final int result = packageOf(left).compareTo(packageOf(right));
+            return result == 0 ? left.compareTo(right) : result;
+        }
+        
+    };
     
     // this package's name
     private final String fullName;
@@ -88,61 +107,140 @@ public class GenPackage {
 
 
     /**
-     * Parses the given commands.
+     * Parses the given commands in a single pass. Packages and commands keep the order
+     * in which they first occur within the given commands.
      * 
-     * @param classes all commands to process
-     * @param parent the parent package
+     * @param commands all commands to process
+     * @param parent the parent package, only commands within it are processed
      * @return the new tree structure
      * @throws MojoExecutionException if execution failed
      */
-    protected static Set<GenPackage> getFirstPackages(Set<Class<? extends IpcCommand>> classes, 
+    protected static Set<GenPackage> getFirstPackages(Set<InspectedCommand> commands, 
         GenPackage parent) throws MojoExecutionException {
         
         final Set<GenPackage> packages = Sets.newLinkedHashSet();
 
-        for (Class<? extends IpcCommand> command : classes) {
-            // within the right package?
-            String className;
-            if (parent != null) {
-                if (!command.getName().startsWith(parent.getFullName() + ".")) {
-                    // not within the requested package
-                    continue;
-                } else {
-                    // strip the parents package
-                    className = command.getName().substring(parent.getFullName().length() + 1);
-                }
-            } else {
-                className = command.getName();
+        // all created packages by their full name
+        final Map<String, GenPackage> known = Maps.newHashMap();
+        final String prefix = parent == null ? "" : parent.getFullName() + ".";
+
+        for (InspectedCommand command : commands) {
+            final String commandName = command.getName();
+            if (!commandName.startsWith(prefix)) {
+                // not within the requested package
+                continue;
             }
-            // we just need the first element
-            final int index = className.indexOf(".");
-            if (index == 0) {
-                throw new MojoExecutionException("invalid class definition found: " + command.getName());
-            } else if (index == -1) {
-                Preconditions.checkNotNull(parent, "Parent");
-                parent.addCommand(new GenCommand(command));
-            } else {
-                // found a package, do we have it already?
-                final String pkgName = command.getName().substring(0, 
-                    command.getName().length() - className.length() + index);
-                boolean found = false;
-                for (GenPackage pkg : packages) {
-                    if (pkg.getFullName().equals(pkgName)) {
-                        found = true;
-                        break;
-                    }
+
+            GenPackage current = parent;
+            int start = prefix.length();
+            int index = commandName.indexOf('.', start);
+            while (index != -1) {
+                if (index == start) {
+                    throw new MojoExecutionException("invalid class definition found: " + commandName);
                 }
-                if (!found) {
+                final String pkgName = commandName.substring(0, index);
+                GenPackage pkg = known.get(pkgName);
+                if (pkg == null) {
                     // we don't have it, create it
-                    final GenPackage genPackage = new GenPackage(pkgName, parent);
-                    for (GenPackage pkg : getFirstPackages(classes, genPackage)) {
-                        genPackage.addPackage(pkg);
+                    pkg = new GenPackage(pkgName, current);
+                    known.put(pkgName, pkg);
+                    if (current == parent) {
+                        packages.add(pkg);
+                    } else {
+                        current.addPackage(pkg);
                     }
-                    packages.add(genPackage);
                 }
+                current = pkg;
+                start = index + 1;
+                index = commandName.indexOf('.', start);
             }
+
+            Preconditions.checkNotNull(current, "Parent");
+            current.addCommand(new GenCommand(command));
         }
 
         return packages;
     }
+
+    /**
+     * Provides the packages of the given commands one at a time, ordered by name. Every
+     * package only contains its own commands and no subpackages, its parents are empty
+     * placeholders. Commands are inspected when their package is reached, so only
+     * the commands of one package are held at once.
+     * 
+     * @param classNames the binary names of all commands to process
+     * @param inspector inspects a command by its name
+     * @return a lazy view of all packages containing commands
+     */
+    protected static Iterable<GenPackage> stream(Iterable<String> classNames, 
+        Function<String, InspectedCommand> inspector) {
+        
+        final List<String> ordered = Lists.newArrayList(classNames);
+        Collections.sort(ordered, PACKAGE_ORDER);
+        return new PackageStream(ordered, inspector);
+    }
+    
+    private static GenPackage placeholder(String pkgName) {
+        final int index = pkgName.lastIndexOf('.');
+        if (index == -1) {
+            return null;
+        }
+        final String parentName = pkgName.substring(0, index);
+        return new GenPackage(parentName, placeholder(parentName));
+    }
+    
+    private static String packageOf(String className) {
+        final int index = className.lastIndexOf('.');
+        return index == -1 ? "" : className.substring(0, index);
+    }
+
+    /**
+     * A lazy view of packages, see {@link GenPackage#stream(Iterable, Function)}. Public,
+     * because velocity only iterates objects of public classes.
+     */
+    public static final class PackageStream implements Iterable<GenPackage> {
+        
+        private final List<String> ordered;
+        
+        private final Function<String, InspectedCommand> inspector;
+        
+        private PackageStream(List<String> ordered, Function<String, InspectedCommand> inspector) {
+            this.ordered = ordered;
+            this.inspector = inspector;
+        }
+        
+        @Override
+        public Iterator<GenPackage> iterator() {
+            // inspects on next() only, velocity's #foreach calls hasNext() before rendering an element
+            return new UnmodifiableIterator<GenPackage>() {
+                
+                private int position;
+                
+                @Override
+                public boolean hasNext() {
+                    return position < ordered.size();
+                }
+                
+                @Override
+                public GenPackage next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final String pkgName = packageOf(ordered.get(position));
+                    Preconditions.checkArgument(pkgName.length() > 0, 
+                        "invalid class definition found: %s", ordered.get(position));
+                    
+                    final GenPackage pkg = new GenPackage(pkgName, placeholder(pkgName));
+                    while (position < ordered.size() && packageOf(ordered.get(position)).equals(pkgName)) {
+                        pkg.addCommand(new GenCommand(inspector.apply(ordered.get(position))));
+                        position++;
+                    }
+                    return pkg;
+                }
+                
+            };
+        }
+        
+    }
+
 }
@@ -16,34 +16,43 @@
 
 package de.cosmocode.palava.maven.ipcstub;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullWriter;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
-import org.apache.velocity.runtime.RuntimeServices;
-import org.apache.velocity.runtime.log.LogChute;
-import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
 import org.codehaus.plexus.util.StringUtils;
 
-import de.cosmocode.palava.ipc.IpcCommand;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 
 /**
  * A configured stub generator.
  * @author Tobias Sarnowski
  */
-public class Generator implements LogChute {
+public class Generator {
     
     private Log log; 
 
@@ -62,12 +71,19 @@ public class Generator implements LogChute {
     private String scheme;
 
     /**
-     * List of all packages to search commands in.
+     * List of all packages to search commands in, "*" matches one
+     * and "**" any number of package segments.
      * @parameter
      * @required
      */
     private List<String> packages;
 
+    /**
+     * List of packages to ignore commands in, e.g. "com.acme.**.internal".
+     * @parameter
+     */
+    private List<String> excludes;
+
     /**
      * Map of aliases to generate within the stub.
      * @parameter
@@ -86,11 +102,68 @@ public class Generator implements LogChute {
      */
     private String legalText;
 
+    /**
+     * Where to write the class map as JSON, relative to the target directory,
+     * e.g. "classmap.json". Schemes can access the map without it.
+     * @parameter
+     */
+    private String classMapFile;
+
+    /**
+     * Base name of the command manifest relative to the target directory, e.g. "commands"
+     * writes "commands.json" and the binary "commands.ipcm".
+     * @parameter
+     */
+    private String manifest;
+
+    /**
+     * Whether to strip comments, indentation and empty lines of generated javascript, php
+     * and java files. Files of other types are written unchanged.
+     * @parameter
+     */
+    private boolean minify;
+
+    /**
+     * Precompressed variants to write next to every generated file, "gzip" and/or "deflate".
+     * @parameter
+     */
+    private List<String> compressions;
+
+    /**
+     * Where to write all generated files concatenated into a single file, relative
+     * to the target directory, e.g. "bundle.js".
+     * @parameter
+     */
+    private String bundle;
+
+    /**
+     * Where to write all generated files split into bundles of at most {@link #shardSize}
+     * bytes, relative to the target directory. E.g. "shards/stubs.js" writes "shards/stubs-0.js",
+     * "shards/stubs-1.js" and so on and the manifest "shards/stubs-shards.json" which maps
+     * every command and package to its shard.
+     * @parameter
+     */
+    private String shards;
+
+    /**
+     * The maximum size of a shard in bytes, packages exceeding it on their own are split,
+     * defaults to 64k.
+     * @parameter
+     */
+    private long shardSize = 65536;
+
+    /**
+     * How to render the scheme: "velocity" uses the templates, "emitter" the {@link Emitter}
+     * registered for the scheme, "auto" prefers the emitter if there is one, defaults to "auto".
+     * @parameter
+     */
+    private String engine = "auto";
+
     // use to know the common generation date;
     private Date generationDate;
 
-    // the engine instance;
-    private VelocityEngine engine;
+    // the shared templates of all generators
+    private TemplateCache templates;
 
     // will be set on generate()
     private File targetDirectory;
@@ -98,6 +171,36 @@ public class Generator implements LogChute {
     // will be generated on generate()
     private Set<GenPackage> rootPackages;
 
+    // will be set on generateStreaming()
+    private Iterable<GenPackage> packageStream;
+
+    // will be opened on generate()
+    private StubOutput output;
+
+    // will be filled by generateFile()
+    private ClassMap classMap;
+
+    private ByteArrayOutputStream bundleContent;
+
+    private ShardedBundle shardedBundle;
+
+    // resolved compressions
+    private List<Compression> compressors;
+
+    // names of commands and packages to render, null for all
+    private Set<String> affected;
+
+    // buffer of the last written file, reused by newFile()
+    private CodeWriter spareWriter;
+
+    // timings of the current execution
+    private ExecutionReport report;
+
+    // encoding and buffer sizes of generated files
+    private Charset encoding;
+
+    private int bufferSize;
+
     public String getName() {
         return name;
     }
@@ -110,6 +213,10 @@ public class Generator implements LogChute {
         return packages;
     }
 
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
     public Map<String, String> getAliases() {
         return aliases;
     }
@@ -122,12 +229,68 @@ public class Generator implements LogChute {
         return legalText;
     }
 
+    public String getClassMapFile() {
+        return classMapFile;
+    }
+
+    public String getManifest() {
+        return manifest;
+    }
+
+    public boolean isMinify() {
+        return minify;
+    }
+
+    public List<String> getCompressions() {
+        return compressions;
+    }
+
+    public String getBundle() {
+        return bundle;
+    }
+
+    public String getShards() {
+        return shards;
+    }
+
+    public long getShardSize() {
+        return shardSize;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * The files generated so far for commands and packages.
+     *
+     * @return the class map of the current generation
+     */
+    public ClassMap getClassMap() {
+        return classMap;
+    }
+
+    /**
+     * The complete package tree, empty in streaming mode.
+     *
+     * @return all root packages
+     */
     public Set<GenPackage> getRootPackages() {
         return rootPackages;
     }
 
-    private String getResourcePath(String resource) {
-        return "/ipcstub/" + scheme + "/" + resource + ".vm";
+    /**
+     * All packages containing commands, each without subpackages and ordered by name.
+     * The commands of a package are inspected while iterating.
+     *
+     * @return a lazy view of all packages containing commands, null if not streaming
+     */
+    public Iterable<GenPackage> getPackageStream() {
+        return packageStream;
+    }
+
+    public boolean isStreaming() {
+        return packageStream != null;
     }
 
     public String getGenerationDate() {
@@ -149,48 +312,241 @@ public class Generator implements LogChute {
         if (getPackages() == null || getPackages().size() == 0) {
             throw new MojoFailureException("no packages configured for configuration '" + getName() + "'");
         }
+        resolveCompressions();
+        if (shards != null && shardSize <= 0) {
+            throw new MojoFailureException("shardSize must be positive for configuration '" + getName() + "'");
+        }
+        if (engine != null && !"auto".equals(engine) && !"velocity".equals(engine) && !"emitter".equals(engine)) {
+            throw new MojoFailureException("unknown engine '" + engine + "' configured for configuration '" + 
+                getName() + "'");
+        }
+    }
+
+    private Emitter findEmitter() throws MojoFailureException {
+        if ("velocity".equals(engine)) {
+            return null;
+        }
+        final ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        try {
+            for (Emitter candidate : ServiceLoader.load(Emitter.class, classloader)) {
+                if (scheme.equals(candidate.getScheme())) {
+                    return candidate;
+                }
+            }
+        } catch (ServiceConfigurationError e) {
+            throw new MojoFailureException("cannot load emitters: " + e.getMessage(), e);
+        }
+        if ("emitter".equals(engine)) {
+            throw new MojoFailureException("no emitter found for scheme " + scheme);
+        }
+        return null;
+    }
+
+    private List<Compression> resolveCompressions() throws MojoFailureException {
+        final List<Compression> resolved = Lists.newArrayList();
+        if (compressions != null) {
+            for (String compression : compressions) {
+                try {
+                    resolved.add(Compression.forName(compression));
+                } catch (IllegalArgumentException e) {
+                    throw new MojoFailureException("unknown compression '" + compression + 
+                        "' configured for configuration '" + getName() + "'");
+                }
+            }
+        }
+        return resolved;
     }
 
     /**
-     * Generates the stub files with the given list of IpcCommand classes.
+     * Generates the stub files with the given list of inspected IpcCommands.
      * 
      * @param currentLog the maven logger
-     * @param classes all requested IpcCommands
+     * @param commands all requested IpcCommands
      * @param directory the target directory
+     * @param context the state shared by all generators of this execution
      * @throws MojoExecutionException if execution failed
      * @throws MojoFailureException if any fatal error occured
      */
-    protected void generate(Log currentLog, Set<Class<? extends IpcCommand>> classes, File directory) 
-        throws MojoExecutionException, MojoFailureException {
+    protected void generate(Log currentLog, Set<InspectedCommand> commands, File directory, 
+        GeneratorContext context) throws MojoExecutionException, MojoFailureException {
+        
+        generate(currentLog, commands, directory, context, null);
+    }
+
+    /**
+     * Generates the stub files with the given list of inspected IpcCommands. Files of
+     * commands and packages which are not affected are kept as generated by the
+     * previous run, as long as they still exist.
+     * 
+     * @param currentLog the maven logger
+     * @param commands all requested IpcCommands
+     * @param directory the target directory
+     * @param context the state shared by all generators of this execution
+     * @param affectedNames full names of all changed commands and packages, null for all
+     * @throws MojoExecutionException if execution failed
+     * @throws MojoFailureException if any fatal error occured
+     */
+    protected void generate(Log currentLog, Set<InspectedCommand> commands, File directory, 
+        GeneratorContext context, Set<String> affectedNames) throws MojoExecutionException, MojoFailureException {
         
+        open(currentLog, directory, context);
+        this.affected = affectedNames;
+
+        // build up tree and informations
+        final long start = System.nanoTime();
+        rootPackages = GenPackage.getFirstPackages(commands, null);
+        packageStream = null;
+        report.phase(name, "tree", System.nanoTime() - start);
+
+        render(directory);
+    }
+
+    /**
+     * Generates the stub files package by package. No package tree is built, templates
+     * have to iterate {@link #getPackageStream()} instead of {@link #getRootPackages()}.
+     * 
+     * @param currentLog the maven logger
+     * @param packages a lazy view of all packages containing requested IpcCommands
+     * @param directory the target directory
+     * @param context the state shared by all generators of this execution
+     * @throws MojoExecutionException if execution failed
+     * @throws MojoFailureException if any fatal error occured
+     */
+    protected void generateStreaming(Log currentLog, Iterable<GenPackage> packages, File directory, 
+        GeneratorContext context) throws MojoExecutionException, MojoFailureException {
+        
+        open(currentLog, directory, context);
+        rootPackages = Collections.emptySet();
+        packageStream = Preconditions.checkNotNull(packages, "Packages");
+        render(directory);
+    }
+
+    private void open(Log currentLog, File directory, GeneratorContext context) throws MojoFailureException {
         this.log = currentLog;
         this.targetDirectory = target == null ? directory : new File(target); 
         this.generationDate = new Date();
+        this.templates = context.getTemplates();
+        this.report = context.getReport();
+        this.encoding = context.getEncoding();
+        this.bufferSize = context.getBufferSize();
+        this.output = StubOutput.open(new File(context.getStateDirectory(), name + ".digests"));
+        this.classMap = new ClassMap();
+        this.bundleContent = bundle == null ? null : new ByteArrayOutputStream(bufferSize);
+        this.shardedBundle = shards == null ? null : new ShardedBundle(shardSize);
+        this.compressors = resolveCompressions();
+        this.affected = null;
+    }
 
-        // initialize the Velocity engine
-        engine = new VelocityEngine();
-        engine.setProperty(VelocityEngine.RUNTIME_LOG_LOGSYSTEM, this);
-        engine.setProperty(VelocityEngine.RESOURCE_LOADER, "class");
-        engine.setProperty("class.resource.loader.class", ClasspathResourceLoader.class.getName());
-        
+    private void render(File directory) throws MojoExecutionException, MojoFailureException {
+        // create the target directory
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new MojoExecutionException("cannot create stub directory: " + directory);
+        }
+
+        final Emitter emitter = findEmitter();
         try {
-            engine.init();
-        /* CHECKSTYLE:OFF */
-        } catch (Exception e) {
-        /* CHECKSTYLE:ON */
-            throw new MojoExecutionException("cannot initialize velocity engine", e);
+            if (emitter == null) {
+                merge();
+            } else {
+                final long emitStart = System.nanoTime();
+                emitter.emit(this);
+                // files are recorded as "emitter", the whole run separately
+                report.phase(name, "emit", System.nanoTime() - emitStart);
+            }
+        } catch (RuntimeException e) {
+            // streamed commands are inspected while rendering
+            FoundCommands.unwrap(e);
+            unwrap(e);
+            throw e;
         }
 
-        // build up tree and informations
-        rootPackages = GenPackage.getFirstPackages(classes, null);
+        if (bundle != null) {
+            final byte[] content = bundleContent.toByteArray();
+            final File file = new File(targetDirectory, bundle);
+            writeOutput(file, content);
+            writeCompressed(file, content);
+            bundleContent = null;
+        }
+
+        if (shards != null) {
+            final long shardStart = System.nanoTime();
+            writeShards();
+            report.phase(name, "shards", System.nanoTime() - shardStart);
+        }
+
+        if (classMapFile != null) {
+            writeOutput(new File(targetDirectory, classMapFile), classMap.toJson());
+        }
+
+        if (manifest != null) {
+            final long manifestStart = System.nanoTime();
+            final CommandManifest commandManifest = new CommandManifest();
+            for (GenPackage pkg : isStreaming() ? packageStream : rootPackages) {
+                commandManifest.add(pkg);
+            }
+            writeOutput(new File(targetDirectory, manifest + ".json"), commandManifest.toJson());
+            final File binary = new File(targetDirectory, manifest + ".ipcm");
+            try {
+                writeOutput(binary, commandManifest.toBinary());
+            } catch (IOException e) {
+                throw new MojoExecutionException("cannot write manifest " + binary, e);
+            }
+            report.phase(name, "manifest", System.nanoTime() - manifestStart);
+        }
 
+        // remove files of removed commands
+        try {
+            output.finish(log);
+        } catch (IOException e) {
+            throw new MojoExecutionException("cannot store digests of " + name, e);
+        }
+        log.info("Generated " + name + ": " + output.getWritten() + " written, " + 
+            output.getUnchanged() + " unchanged, " + output.getDeleted() + " deleted");
+    }
+
+    /**
+     * Restores a failure of a generator method which was called by a template.
+     *
+     * @param e the exception thrown by the template engine
+     * @throws MojoExecutionException if execution failed
+     * @throws MojoFailureException if the template failed the generation
+     */
+    private static void unwrap(RuntimeException e) throws MojoExecutionException, MojoFailureException {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MojoFailureException) {
+                throw (MojoFailureException) cause;
+            } else if (cause instanceof MojoExecutionException) {
+                throw (MojoExecutionException) cause;
+            }
+        }
+    }
+
+    private void writeShards() throws MojoExecutionException {
+        final int extension = shards.lastIndexOf('.');
+        final boolean hasExtension = extension > shards.lastIndexOf('/');
+        final String base = hasExtension ? shards.substring(0, extension) : shards;
+        final String suffix = hasExtension ? shards.substring(extension) : "";
+
+        final List<byte[]> contents = shardedBundle.pack();
+        final List<String> fileNames = Lists.newArrayListWithCapacity(contents.size());
+        for (int i = 0; i < contents.size(); i++) {
+            final String fileName = base + "-" + i + suffix;
+            final File file = new File(targetDirectory, fileName);
+            writeOutput(file, contents.get(i));
+            writeCompressed(file, contents.get(i));
+            fileNames.add(fileName);
+        }
+        writeOutput(new File(targetDirectory, base + "-shards.json"), shardedBundle.toJson(fileNames));
+        log.debug("Packed " + name + " into " + contents.size() + " shards");
+        shardedBundle = null;
+    }
+
+    private void merge() throws MojoExecutionException, MojoFailureException {
         // find the scheme to use
-        final String templatePath = getResourcePath("main");
-        
         final Template template;
         
         try {
-            template = engine.getTemplate(templatePath);
+            template = templates.getTemplate(scheme, "main");
         /* CHECKSTYLE:OFF */
         } catch (Exception e) {
         /* CHECKSTYLE:ON */
@@ -201,80 +557,95 @@ public class Generator implements LogChute {
         final VelocityContext ctx = new VelocityContext();
         ctx.put("generator", this);
 
-        // create the target directory
-        if (!directory.exists() && !directory.mkdirs()) {
-            throw new MojoExecutionException("cannot create stub directory: " + directory);
+        // start the generation process within the scheme, its output is not used
+        final long mergeStart = System.nanoTime();
+        try {
+            template.merge(ctx, new NullWriter());
+        } catch (IOException e) {
+            throw new MojoExecutionException("cannot merge template", e);
         }
+        report.phase(name, "main", System.nanoTime() - mergeStart);
+    }
 
-        // start the generation process within the scheme
-        final StringWriter writer = new StringWriter();
+    private void writeOutput(File file, String content) throws MojoExecutionException {
         try {
-            // scheme have to be in UTF-8
-            template.merge(ctx, writer);
+            writeOutput(file, content.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeOutput(File file, byte[] content) throws MojoExecutionException {
+        try {
+            if (output.write(file, content)) {
+                log.info("Generated " + file);
+            } else {
+                log.debug("Unchanged " + file);
+            }
         } catch (IOException e) {
-            throw new MojoExecutionException("cannot merge template", e);
+            throw new MojoExecutionException("cannot write file " + file, e);
+        }
+    }
+
+    private boolean isAffected(Object args) {
+        if (affected == null) {
+            return true;
+        } else if (args instanceof GenCommand) {
+            return affected.contains(GenCommand.class.cast(args).getFullName());
+        } else if (args instanceof GenPackage) {
+            return affected.contains(GenPackage.class.cast(args).getFullName());
+        } else {
+            return true;
         }
     }
 
-    @Override
-    public void init(RuntimeServices runtimeServices) throws Exception {
-        // nothing to do
-    }
-
-    @Override
-    public void log(int i, String s) {
-        switch (i) {
-            case LogChute.TRACE_ID:
-            case LogChute.DEBUG_ID:
-                log.debug(s);
-                break;
-            case LogChute.INFO_ID:
-                log.info(s);
-                break;
-            case LogChute.WARN_ID:
-                log.warn(s);
-                break;
-            case LogChute.ERROR_ID:
-                log.error(s);
-                break;
-            default: 
-        }
-    }
-
-    @Override
-    public void log(int i, String s, Throwable throwable) {
-        switch (i) {
-            case LogChute.TRACE_ID:
-            case LogChute.DEBUG_ID:
-                log.debug(s, throwable);
-                break;
-            case LogChute.INFO_ID:
-                log.info(s, throwable);
-                break;
-            case LogChute.WARN_ID:
-                log.warn(s, throwable);
-                break;
-            case LogChute.ERROR_ID:
-                log.error(s, throwable);
-                break;
-            default: 
-        }
-    }
-
-    @Override
-    public boolean isLevelEnabled(int i) {
-        switch (i) {
-            case LogChute.TRACE_ID:
-            case LogChute.DEBUG_ID:
-                return log.isDebugEnabled();
-            case LogChute.INFO_ID:
-                return log.isInfoEnabled();
-            case LogChute.WARN_ID:
-                return log.isWarnEnabled();
-            case LogChute.ERROR_ID:
-                return log.isErrorEnabled();
-            default:
+    private boolean keep(String generatedFileName, File generatedFile, Object args) throws MojoExecutionException {
+        final List<File> files = Lists.newArrayList(generatedFile);
+        for (Compression compression : compressors) {
+            files.add(new File(generatedFile.getPath() + compression.getSuffix()));
+        }
+        for (File file : files) {
+            if (!output.isKnown(file)) {
                 return false;
+            }
+        }
+        for (File file : files) {
+            output.keep(file);
+        }
+        classMap.record(args, generatedFileName, generatedFile.length());
+        if (bundleContent != null || shardedBundle != null) {
+            final byte[] content;
+            try {
+                content = FileUtils.readFileToByteArray(generatedFile);
+            } catch (IOException e) {
+                throw new MojoExecutionException("cannot read file " + generatedFile, e);
+            }
+            appendToBundles(args, content);
+        }
+        log.debug("Kept " + generatedFile);
+        return true;
+    }
+
+    private void appendToBundles(Object args, byte[] content) {
+        if (bundleContent != null) {
+            bundleContent.write(content, 0, content.length);
+            if (content.length > 0 && content[content.length - 1] != '\n') {
+                bundleContent.write('\n');
+            }
+        }
+        if (shardedBundle != null) {
+            shardedBundle.add(args, content);
+        }
+    }
+
+    private void writeCompressed(File file, byte[] content) throws MojoExecutionException {
+        for (Compression compression : compressors) {
+            final File compressed = new File(file.getPath() + compression.getSuffix());
+            try {
+                writeOutput(compressed, compression.compress(content));
+            } catch (IOException e) {
+                throw new MojoExecutionException("cannot compress " + file, e);
+            }
         }
     }
 
@@ -292,12 +663,13 @@ public class Generator implements LogChute {
         throws MojoExecutionException, MojoFailureException {
         
         final File generatedFile = new File(targetDirectory, generatedFileName);
-        final File parent = new File(generatedFile.getParent());
-        parent.mkdirs();
+        if (!isAffected(args) && keep(generatedFileName, generatedFile, args)) {
+            return;
+        }
 
         Template tpl = null;
         try {
-            tpl = engine.getTemplate(getResourcePath(templateFile));
+            tpl = templates.getTemplate(scheme, templateFile);
         /* CHECKSTYLE:OFF */
         } catch (Exception e) {
         /* CHECKSTYLE:ON */
@@ -308,19 +680,93 @@ public class Generator implements LogChute {
         ctx.put("generator", this);
         ctx.put("args", args);
 
-        final FileWriter w;
+        // render into memory first, unchanged files won't be touched
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(bufferSize);
+        final Writer w = new BufferedWriter(new OutputStreamWriter(bytes, encoding), bufferSize);
+        final long start = System.nanoTime();
         try {
-            w = new FileWriter(generatedFile);
-        } catch (IOException e) {
-            throw new MojoExecutionException("cannot create file " + generatedFile, e);
-        }
-        try {
-            log.info("Generating " + generatedFile + "...");
             tpl.merge(ctx, w);
             w.close();
         } catch (IOException e) {
             throw new MojoExecutionException("cannot merge template" + templateFile, e);
         }
+        final long duration = System.nanoTime() - start;
+
+        writeGenerated(generatedFileName, templateFile, args, bytes.toByteArray(), duration);
+    }
+
+    /**
+     * Starts a file written by an {@link Emitter}.
+     *
+     * @param generatedFileName the file name relative to the target directory
+     * @param args the command, package or anything else the file is generated for
+     * @return a writer for the content or null if the file is not affected by the
+     *         changes of the watch goal and can be kept
+     * @throws MojoExecutionException if execution failed
+     */
+    public CodeWriter newFile(String generatedFileName, Object args) throws MojoExecutionException {
+        final File generatedFile = new File(targetDirectory, generatedFileName);
+        if (!isAffected(args) && keep(generatedFileName, generatedFile, args)) {
+            return null;
+        }
+        CodeWriter writer = spareWriter;
+        spareWriter = null;
+        if (writer == null) {
+            writer = new CodeWriter(bufferSize);
+        }
+        writer.reset(generatedFileName, args);
+        return writer;
+    }
+
+    /**
+     * Writes a file started by {@link #newFile(String, Object)}.
+     *
+     * @param writer the writer containing the complete content
+     * @throws MojoExecutionException if execution failed
+     */
+    public void writeFile(CodeWriter writer) throws MojoExecutionException {
+        final ByteBuffer encoded = encoding.encode(CharBuffer.wrap(writer.getContent()));
+        final byte[] content = new byte[encoded.remaining()];
+        encoded.get(content);
+        writeGenerated(writer.getFileName(), "emitter", writer.getArgs(), content, 
+            System.nanoTime() - writer.getStart());
+        spareWriter = writer;
+    }
+
+    private void writeGenerated(String generatedFileName, String kind, Object args, byte[] rendered, 
+        long duration) throws MojoExecutionException {
+        
+        final File generatedFile = new File(targetDirectory, generatedFileName);
+        final Minifier.Syntax syntax = minify ? Minifier.Syntax.of(generatedFileName) : null;
+        final byte[] content = syntax == null ? rendered 
+            : Minifier.minify(new String(rendered, encoding), syntax).getBytes(encoding);
+
+        try {
+            classMap.record(args, generatedFileName, content.length);
+            if (output.write(generatedFile, content)) {
+                log.info("Generated " + generatedFile);
+                report.render(name, kind, duration, content.length);
+            } else {
+                log.debug("Unchanged " + generatedFile);
+                report.render(name, kind, duration, 0);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("cannot write file " + generatedFile, e);
+        }
+
+        writeCompressed(generatedFile, content);
+        appendToBundles(args, content);
+    }
+
+    /**
+     * Fails the generation, e.g. if a command can't be expressed in the scheme.
+     *
+     * @param message the reason
+     * @throws MojoFailureException always
+     */
+    // used by templates
+    public void fail(String message) throws MojoFailureException {
+        throw new MojoFailureException(message);
     }
 
     /**
@@ -335,7 +781,7 @@ public class Generator implements LogChute {
         final Template template;
         
         try {
-            template = engine.getTemplate(getResourcePath(templateFile));
+            template = templates.getTemplate(scheme, templateFile);
         /* CHECKSTYLE:OFF */
         } catch (Exception e) {
         /* CHECKSTYLE:ON */
@@ -346,12 +792,14 @@ public class Generator implements LogChute {
         ctx.put("generator", this);
 
         final StringWriter writer = new StringWriter();
+        final long start = System.nanoTime();
         
         try {
             template.merge(ctx, writer);
         } catch (IOException e) {
             throw new MojoExecutionException("cannot merge template", e);
         }
+        report.include(name, templateFile, System.nanoTime() - start);
         
         return writer.toString();
     }
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * State shared by all generators of one execution.
+ */
+final class GeneratorContext {
+
+    private final File stateDirectory;
+
+    private final TemplateCache templates;
+
+    private final ExecutionReport report;
+
+    private final Charset encoding;
+
+    private final int bufferSize;
+
+    GeneratorContext(File stateDirectory, TemplateCache templates, ExecutionReport report, 
+        Charset encoding, int bufferSize) {
+        this.stateDirectory = Preconditions.checkNotNull(stateDirectory, "StateDirectory");
+        this.templates = Preconditions.checkNotNull(templates, "Templates");
+        this.report = Preconditions.checkNotNull(report, "Report");
+        this.encoding = Preconditions.checkNotNull(encoding, "Encoding");
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must be positive");
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * The directory to keep informations between runs in.
+     *
+     * @return the state directory
+     */
+    public File getStateDirectory() {
+        return stateDirectory;
+    }
+
+    public TemplateCache getTemplates() {
+        return templates;
+    }
+
+    public ExecutionReport getReport() {
+        return report;
+    }
+
+    /**
+     * The encoding of all generated files.
+     *
+     * @return the output encoding
+     */
+    public Charset getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * The initial size of render buffers.
+     *
+     * @return the buffer size in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+}
@@ -17,27 +17,33 @@
 package de.cosmocode.palava.maven.ipcstub;
 
 import java.io.File;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
 
-import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.gag.annotation.remark.OhNoYouDidnt;
 
 import de.cosmocode.commons.reflect.Classpath;
 import de.cosmocode.commons.reflect.Reflection;
@@ -66,6 +72,15 @@ public class GeneratorModule extends AbstractMojo {
      */
     private MavenProject project;
 
+    /**
+     * The current build session.
+     * 
+     * @parameter expression="${session}"
+     * @required
+     * @readonly
+     */
+    private MavenSession session;
+
     /**
      * List of all generators the use with their configuration.
      * 
@@ -74,6 +89,74 @@ public class GeneratorModule extends AbstractMojo {
      */
     private List<Generator> generators;
 
+    /**
+     * How to discover IpcCommands: "bytecode" reads class files directly and only loads
+     * the found commands, "index" reads the indices written by the CommandIndexProcessor
+     * at compile time and loads no command at all, "reflection" loads every class within
+     * the configured packages. See {@link CommandIndexProcessor} on how to enable the index.
+     * 
+     * @parameter default-value="bytecode"
+     */
+    private String discovery;
+
+    /**
+     * Whether to keep bytecode scan results of unchanged classpath elements
+     * in the build directory.
+     * 
+     * @parameter default-value="true"
+     */
+    private boolean scanCache;
+
+    /**
+     * Number of classloaders for scanned classpaths to keep between executions within
+     * the same JVM, e.g. in reactor builds. Executions with an identical classpath reuse
+     * the cached loader. 0 closes every loader right after its execution.
+     * 
+     * @parameter default-value="0"
+     */
+    private int classLoaderCacheSize;
+
+    /**
+     * The encoding of all generated files.
+     * 
+     * @parameter expression="${ipcstub.encoding}" default-value="UTF-8"
+     */
+    private String encoding;
+
+    /**
+     * The initial size in bytes of the buffer every file is rendered into.
+     * 
+     * @parameter default-value="8192"
+     */
+    private int bufferSize;
+
+    /**
+     * Whether to inspect and render commands package by package instead of building
+     * the complete command tree first. Requires "bytecode" or "index" discovery and a
+     * scheme which iterates $generator.packageStream.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean streaming;
+
+    /**
+     * Whether to run all generators concurrently.
+     * 
+     * @parameter default-value="false"
+     */
+    private boolean parallel;
+
+    /**
+     * Maximum number of generators to run at once in parallel mode,
+     * defaults to the number of available processors.
+     * 
+     * @parameter default-value="0"
+     */
+    private int threads;
+
+    // timings of the current execution
+    private ExecutionReport report;
+
     /**
      * The generators.
      * 
@@ -90,50 +173,360 @@ public class GeneratorModule extends AbstractMojo {
      */
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        final File targetDirectory = new File(project.getBuild().getOutputDirectory(), "ipcstub");
+        final PackageMatcher matcher = prepare();
+        final File stateDirectory = getStateDirectory();
+        startReport();
+
+        final long start = System.nanoTime();
+        final List<File> locations = resolveClasspath();
+        report.phase("classpath", System.nanoTime() - start);
+
+        if ("index".equals(discovery)) {
+            // descriptors are built from the index, no command is loaded
+            render(streaming ? stream(locations, matcher) : inspect(locations, matcher), locations, stateDirectory);
+            return;
+        }
+
+        // commands are loaded using the scanned classpath, the same loader provides templates
+        // and emitters, so no second loader of the classpath is opened for rendering
+        final ScanClassLoader classloader = ScanClassLoader.acquire(locations, getClass().getClassLoader(), 
+            classLoaderCacheSize);
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classloader);
+        try {
+            // streaming inspects commands while rendering their package
+            final List<GeneratorRun> runs = streaming ? stream(locations, matcher) : inspect(locations, matcher);
+            generate(runs, getTargetDirectory(), stateDirectory);
+        } finally {
+            thread.setContextClassLoader(previous);
+            classloader.release();
+        }
+    }
+
+    /**
+     * Checks the configuration and compiles the packages of all generators.
+     *
+     * @return the compiled packages
+     * @throws MojoFailureException if the configuration is invalid
+     */
+    PackageMatcher prepare() throws MojoFailureException {
+        if (bufferSize <= 0) {
+            throw new MojoFailureException("bufferSize must be positive");
+        }
 
-        // check configurations and aggregate all required packages
-        final Set<String> allPackages = Sets.newHashSet();
+        // check configurations and compile all required packages
         for (Generator generator : generators) {
             generator.check();
-            allPackages.addAll(generator.getPackages());
+        }
+
+        final PackageMatcher matcher;
+        try {
+            matcher = PackageMatcher.compile(generators);
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException(e.getMessage(), e);
         }
 
         log.info("Searching for IpcCommands in:");
-        for (String pkg : allPackages) {
-            log.info("    " + pkg);
+        for (Generator generator : generators) {
+            log.info("    " + generator.getName() + ": " + Joiner.on(", ").join(generator.getPackages()));
+            if (generator.getExcludes() != null && !generator.getExcludes().isEmpty()) {
+                log.info("        excluding " + Joiner.on(", ").join(generator.getExcludes()));
+            }
         }
+        return matcher;
+    }
 
-        // search for IpcCommands in all required packages
-        final Set<Class<? extends IpcCommand>> foundClasses = Sets.newTreeSet(Reflection.orderByName());
-        Iterables.addAll(foundClasses, generateCommandList(allPackages));
+    MavenProject getProject() {
+        return project;
+    }
 
-        log.info("Found " + foundClasses.size() + " IpcCommands; generating stubs...");
+    String getDiscovery() {
+        return discovery;
+    }
 
-        // filter classes and let the generators do their work
-        for (Generator generator : generators) {
-            final Set<Class<? extends IpcCommand>> filteredClasses = Sets.newLinkedHashSet();
+    int getClassLoaderCacheSize() {
+        return classLoaderCacheSize;
+    }
+
+    File getStateDirectory() {
+        return new File(project.getBuild().getDirectory(), "ipcstub");
+    }
+
+    File getTargetDirectory() {
+        return new File(project.getBuild().getOutputDirectory(), "ipcstub");
+    }
+
+    ExecutionReport getReport() {
+        return report;
+    }
+
+    /**
+     * Starts the timings of a new execution.
+     *
+     * @return the new report
+     */
+    ExecutionReport startReport() {
+        report = new ExecutionReport();
+        return report;
+    }
+
+    private List<GeneratorRun> inspect(List<File> locations, PackageMatcher matcher) 
+        throws MojoExecutionException, MojoFailureException {
+        
+        // search for IpcCommands in all required packages and inspect every command once,
+        // shared by all generators
+        final List<InspectedCommand> inspected;
+        if ("reflection".equals(discovery)) {
+            long start = System.nanoTime();
+            final Set<Class<? extends IpcCommand>> foundClasses = Sets.newTreeSet(Reflection.orderByName());
+            Iterables.addAll(foundClasses, findClasses(locations, matcher));
+            report.phase("scanning", System.nanoTime() - start);
+
+            log.info("Found " + foundClasses.size() + " IpcCommands; generating stubs...");
+
+            start = System.nanoTime();
+            inspected = Lists.newArrayListWithCapacity(foundClasses.size());
             for (Class<? extends IpcCommand> foundClass : foundClasses) {
-                for (String requiredPackage : generator.getPackages()) {
-                    if (foundClass.getName().startsWith(requiredPackage + ".")) {
-                        filteredClasses.add(foundClass);
-                        break;
-                    }
+                try {
+                    inspected.add(InspectedCommand.inspectCommand(foundClass));
+                } catch (IllegalArgumentException e) {
+                    throw new MojoFailureException(e.getMessage(), e);
                 }
             }
+            report.phase("inspection", System.nanoTime() - start);
+        } else {
+            long start = System.nanoTime();
+            final FoundCommands found = findCommands(locations, matcher);
+            report.phase("scanning", System.nanoTime() - start);
 
-            // whats the target directory?
-            final File stubTargetDirectory = new File(targetDirectory, generator.getName());
+            log.info("Found " + found.getNames().size() + " IpcCommands; generating stubs...");
 
-            // now call the generator
-            generator.generate(log, filteredClasses, stubTargetDirectory);
+            start = System.nanoTime();
+            inspected = Lists.newArrayListWithCapacity(found.getNames().size());
+            for (String className : found.getNames()) {
+                inspected.add(found.inspect(className));
+            }
+            report.phase("inspection", System.nanoTime() - start);
         }
+
+        // classify every command for all generators in one pass
+        final long start = System.nanoTime();
+        final List<Set<InspectedCommand>> filtered = Lists.newArrayList();
+        for (int i = 0; i < generators.size(); i++) {
+            filtered.add(Sets.<InspectedCommand>newLinkedHashSet());
+        }
+        for (InspectedCommand command : inspected) {
+            final BitSet matches = matcher.match(command.getName());
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                filtered.get(i).add(command);
+            }
+        }
+        report.phase("filtering", System.nanoTime() - start);
+
+        final List<GeneratorRun> runs = Lists.newArrayList();
+        for (int i = 0; i < generators.size(); i++) {
+            final Generator generator = generators.get(i);
+            final Set<InspectedCommand> commands = filtered.get(i);
+            runs.add(new GeneratorRun() {
+                
+                @Override
+                public void generate(Log currentLog, File directory, GeneratorContext context) 
+                    throws MojoExecutionException, MojoFailureException {
+                    generator.generate(currentLog, commands, directory, context);
+                }
+                
+            });
+        }
+        return runs;
     }
 
-    private Iterable<Class<? extends IpcCommand>> generateCommandList(Set<String> packages) 
-        throws MojoExecutionException {
+    /**
+     * Renders the given runs of indexed commands using a loader of the project's classpath
+     * which provides templates and emitters only, no command is loaded by it. The loader
+     * is taken from the cache of classloaders, if enabled.
+     *
+     * @param runs the inspected runs
+     * @param locations the project's classpath
+     * @param stateDirectory the state directory
+     * @throws MojoExecutionException if execution failed
+     * @throws MojoFailureException if the configuration is invalid
+     */
+    void render(List<GeneratorRun> runs, List<File> locations, File stateDirectory) 
+        throws MojoExecutionException, MojoFailureException {
+        
+        final ScanClassLoader classloader = ScanClassLoader.acquire(locations, getClass().getClassLoader(), 
+            classLoaderCacheSize);
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classloader);
+        try {
+            generate(runs, getTargetDirectory(), stateDirectory);
+        } finally {
+            thread.setContextClassLoader(previous);
+            classloader.release();
+        }
+    }
+
+    private List<GeneratorRun> stream(List<File> locations, PackageMatcher matcher) 
+        throws MojoExecutionException, MojoFailureException {
+        
+        if ("reflection".equals(discovery)) {
+            throw new MojoFailureException("streaming requires bytecode or index discovery");
+        }
+
+        // only the names are kept, commands are inspected while rendering their package
+        long start = System.nanoTime();
+        final FoundCommands found = findCommands(locations, matcher);
+        final SortedSet<String> classNames = found.getNames();
+        report.phase("scanning", System.nanoTime() - start);
+
+        log.info("Found " + classNames.size() + " IpcCommands; streaming stubs...");
+
+        start = System.nanoTime();
+        final List<List<String>> filtered = Lists.newArrayList();
+        for (int i = 0; i < generators.size(); i++) {
+            filtered.add(Lists.<String>newArrayList());
+        }
+        for (String className : classNames) {
+            final BitSet matches = matcher.match(className);
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                filtered.get(i).add(className);
+            }
+        }
+        report.phase("filtering", System.nanoTime() - start);
+
+        final List<GeneratorRun> runs = Lists.newArrayList();
+        for (int i = 0; i < generators.size(); i++) {
+            final Generator generator = generators.get(i);
+            final Iterable<GenPackage> packages = GenPackage.stream(filtered.get(i), found);
+            runs.add(new GeneratorRun() {
+                
+                @Override
+                public void generate(Log currentLog, File directory, GeneratorContext context) 
+                    throws MojoExecutionException, MojoFailureException {
+                    generator.generateStreaming(currentLog, packages, directory, context);
+                }
+                
+            });
+        }
+        return runs;
+    }
+
+    void generate(List<GeneratorRun> runs, File targetDirectory, File stateDirectory) 
+        throws MojoExecutionException, MojoFailureException {
+        
+        // templates are shared by all generators of this execution
+        long start = System.nanoTime();
+        final TemplateCache templates = TemplateCache.acquire(log);
+        final GeneratorContext context = new GeneratorContext(stateDirectory, templates, report, 
+            getEncoding(), bufferSize);
+        report.phase("engine", System.nanoTime() - start);
+
+        // let the generators do their work
+        start = System.nanoTime();
+        try {
+            if (parallel && runs.size() > 1) {
+                generateConcurrently(runs, targetDirectory, context);
+            } else {
+                for (int i = 0; i < runs.size(); i++) {
+                    final File stubTargetDirectory = new File(targetDirectory, generators.get(i).getName());
+                    runs.get(i).generate(log, stubTargetDirectory, context);
+                }
+            }
+        } finally {
+            templates.release();
+        }
+        report.phase("generation", System.nanoTime() - start);
+
+        report.log(log);
+        final File reportFile = new File(stateDirectory, "report.json");
+        try {
+            report.write(reportFile);
+        } catch (IOException e) {
+            log.warn("cannot write report " + reportFile, e);
+        }
+    }
+
+    private void generateConcurrently(List<GeneratorRun> runs, final File targetDirectory, 
+        final GeneratorContext context) throws MojoExecutionException, MojoFailureException {
         
-        // create the classpath to use
+        final int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(size, generators.size()));
+        final ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+
+        // every generator uses its own log
+        final List<BufferedLog> logs = Lists.newArrayList();
+        final List<Future<Void>> futures = Lists.newArrayList();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                final Generator generator = generators.get(i);
+                final GeneratorRun run = runs.get(i);
+                final BufferedLog generatorLog = new BufferedLog(log);
+                logs.add(generatorLog);
+                futures.add(executor.submit(new Callable<Void>() {
+                    
+                    @Override
+                    public Void call() throws MojoExecutionException, MojoFailureException {
+                        Thread.currentThread().setContextClassLoader(classloader);
+                        final File stubTargetDirectory = new File(targetDirectory, generator.getName());
+                        // velocity's messages belong to the generator as well
+                        context.getTemplates().attachLog(generatorLog);
+                        try {
+                            run.generate(generatorLog, stubTargetDirectory, context);
+                        } finally {
+                            context.getTemplates().detachLog();
+                        }
+                        return null;
+                    }
+                    
+                }));
+            }
+
+            // wait for all and report in configuration order
+            final List<String> failed = Lists.newArrayList();
+            Throwable firstFailure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                Throwable failure = null;
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoExecutionException("interrupted while generating stubs", e);
+                }
+                logs.get(i).flush();
+                if (failure != null) {
+                    log.error("Generator " + generators.get(i).getName() + " failed", failure);
+                    failed.add(generators.get(i).getName());
+                    if (firstFailure == null) {
+                        firstFailure = failure;
+                    }
+                }
+            }
+
+            if (failed.size() == 1 && firstFailure instanceof MojoExecutionException) {
+                throw (MojoExecutionException) firstFailure;
+            } else if (failed.size() == 1 && firstFailure instanceof MojoFailureException) {
+                throw (MojoFailureException) firstFailure;
+            } else if (firstFailure != null) {
+                throw new MojoExecutionException("generators failed: " + Joiner.on(", ").join(failed), firstFailure);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Charset getEncoding() throws MojoFailureException {
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException("unsupported encoding " + encoding, e);
+        }
+    }
+
+    List<File> resolveClasspath() throws MojoExecutionException {
         final List<File> locations = Lists.newArrayList();
         try {
             for (Object element : project.getRuntimeClasspathElements()) {
@@ -143,57 +536,119 @@ public class GeneratorModule extends AbstractMojo {
         } catch (DependencyResolutionRequiredException e) {
             throw new MojoExecutionException("dependencies not resolved", e);
         }
+        return locations;
+    }
+
+    private Iterable<Class<? extends IpcCommand>> findClasses(List<File> locations, 
+        final PackageMatcher matcher) throws MojoFailureException {
         
-        // hack: add the required files to the classloader
-        boostrapClassloader(Iterables.transform(locations, new Function<File, URL>() {
+        if (!matcher.isRestricted()) {
+            throw new MojoFailureException("reflection discovery requires packages without leading wildcards");
+        }
+        final String value = Joiner.on(File.pathSeparator).join(locations);
+        final Classpath cp = Reflection.classpathOf(value);
+        final Predicate<Class<?>> predicate = Reflection.isConcreteClass();
+        final Iterable<Class<? extends IpcCommand>> found = 
+            cp.restrictTo(matcher.getPrefixes()).filter(IpcCommand.class, predicate);
+        // wildcards and excludes are not covered by the package restriction
+        return Iterables.filter(found, new Predicate<Class<? extends IpcCommand>>() {
             
             @Override
-            public URL apply(File from) {
-                try {
-                    return from.toURI().toURL();
-                } catch (MalformedURLException e) {
-                    throw new IllegalArgumentException(e);
-                }
+            public boolean apply(Class<? extends IpcCommand> input) {
+                return matcher.matchesAny(input.getName());
             }
             
-        }));
-
-        final String value = Joiner.on(File.pathSeparator).join(locations);
-        final Classpath cp = Reflection.classpathOf(value);
-        final Predicate<Class<?>> predicate = Reflection.isConcreteClass();
-        return cp.restrictTo(packages).filter(IpcCommand.class, predicate);
+        });
     }
 
     /**
-     * WARNING: dirtiest maven hack ever!
-     * @param classpath elements to add to the current classpath
+     * Finds all wanted commands using the "bytecode" or "index" discovery.
+     *
+     * @param locations the classpath
+     * @param matcher the compiled packages of all generators
+     * @return the found commands
+     * @throws MojoExecutionException if discovery failed
      */
-    @OhNoYouDidnt
-    private static void boostrapClassloader(Iterable<URL> classpath) {
-        final Method method;
-        
-        try {
-            final ClassLoader classloader = Thread.currentThread().getContextClassLoader();
-            final Class<? extends ClassLoader> classloaderClass = classloader.getClass();
-            method = classloaderClass.getSuperclass().getDeclaredMethod("addURL", URL.class);
-        } catch (NoSuchMethodException e) {
-            throw new IllegalStateException("used classloader has no addURL method", e);
+    FoundCommands findCommands(List<File> locations, PackageMatcher matcher) throws MojoExecutionException {
+        if ("bytecode".equals(discovery)) {
+            return FoundCommands.loaded(scanBytecode(locations, matcher));
+        } else if ("index".equals(discovery)) {
+            return FoundCommands.indexed(readIndex(locations, matcher));
+        } else {
+            throw new MojoExecutionException("unknown discovery " + discovery);
         }
+    }
+
+    private SortedSet<String> scanBytecode(List<File> locations, PackageMatcher matcher) 
+        throws MojoExecutionException {
         
-        final boolean accessible = method.isAccessible();
-        method.setAccessible(true);
+        final File cacheFile = new File(project.getBuild().getDirectory(), "ipcstub/scan.cache");
+        final ScanCache cache = scanCache ? ScanCache.load(cacheFile) : new ScanCache();
         
-        try {
-            for (URL url : classpath) {
-                method.invoke(Thread.currentThread().getContextClassLoader(), url);
+        // every element is scanned at most once per build, other modules reuse the result
+        final SessionScanCache sessionCache = SessionScanCache.of(session);
+        
+        final BytecodeScanner scanner = new BytecodeScanner(log);
+        for (final File location : locations) {
+            final String fingerprint = ScanCache.fingerprint(location);
+            final List<ClassHeader> headers;
+            try {
+                headers = sessionCache.get(location, fingerprint, new Callable<List<ClassHeader>>() {
+                    
+                    @Override
+                    public List<ClassHeader> call() throws IOException {
+                        final List<ClassHeader> cached = cache.get(location, fingerprint);
+                        return cached == null ? BytecodeScanner.read(location, log) : cached;
+                    }
+                    
+                });
+            } catch (IOException e) {
+                throw new MojoExecutionException("cannot scan classpath element " + location, e);
+            }
+            cache.put(location, fingerprint, headers);
+            scanner.addAll(headers);
+        }
+
+        if (scanCache) {
+            log.debug("Scan cache: " + cache.getHits() + " unchanged, " + cache.getMisses() + " rescanned");
+            try {
+                cache.store(cacheFile);
+            } catch (IOException e) {
+                log.warn("cannot store scan cache " + cacheFile, e);
             }
-        } catch (IllegalAccessException e) {
-            throw new IllegalStateException("cannot call classloader's addURL method", e);
-        } catch (InvocationTargetException e) {
-            throw new IllegalStateException("cannot call classloader's addURL method", e);
-        } finally {
-            method.setAccessible(accessible);
         }
+
+        // only the found commands will be loaded
+        return scanner.findCommands(matcher);
     }
-    
+
+    private SortedMap<String, CommandIndex.Entry> readIndex(List<File> locations, PackageMatcher matcher) 
+        throws MojoExecutionException {
+        
+        final SortedMap<String, CommandIndex.Entry> entries = Maps.newTreeMap();
+        for (File location : locations) {
+            try {
+                for (CommandIndex.Entry entry : CommandIndex.read(location).values()) {
+                    // first occurence on the classpath wins, just like in a classloader
+                    if (matcher.matchesAny(entry.getName()) && !entries.containsKey(entry.getName())) {
+                        entries.put(entry.getName(), entry);
+                    }
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("cannot read command index of " + location, e);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Runs one generator on its share of the found commands.
+     */
+    interface GeneratorRun {
+        
+        void generate(Log currentLog, File directory, GeneratorContext context) 
+            throws MojoExecutionException, MojoFailureException;
+        
+    }
+
 }
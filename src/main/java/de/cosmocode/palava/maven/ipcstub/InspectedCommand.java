@@ -17,10 +17,19 @@
 package de.cosmocode.palava.maven.ipcstub;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.SortedMap;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import de.cosmocode.palava.ipc.IpcCommand;
 import de.cosmocode.palava.ipc.IpcCommand.Description;
@@ -33,21 +42,170 @@ import de.cosmocode.palava.ipc.IpcCommand.Throw;
 import de.cosmocode.palava.ipc.IpcCommand.Throws;
 
 /**
- * A wrapper around an {@link IpcCommand} class which provides easy retrieval of
- * meta information.
+ * An immutable snapshot of the meta information of an {@link IpcCommand} class.
+ * All annotations are read once on creation, from the loaded class or from the
+ * {@link CommandIndex}, and copied into plain descriptors, so instances can be shared
+ * by all generators and templates and keep neither the class nor its loader alive.
  * 
  * @author Tobias Sarnowski
  */
 public final class InspectedCommand {
 
-    private final Class<? extends IpcCommand> command;
+    private static final Comparator<Method> BY_NAME = new Comparator<Method>() {
+
+        @Override
+        public int compare(Method left, Method right) {
+            return left.getName().compareTo(right.getName());
+        }
+
+    };
+
+    private final String name;
+
+    private final String simpleName;
+
+    private final String description;
+
+    private final boolean deprecated;
+
+    private final List<ParamInfo> params;
+
+    private final List<ThrowInfo> throwables;
+
+    private final List<ReturnInfo> returns;
+
+    private final List<MetaInfo> metaInformations;
+
+    private final Caching caching;
 
     private InspectedCommand(Class<? extends IpcCommand> command) {
-        this.command = Preconditions.checkNotNull(command, "Command");
+        Preconditions.checkNotNull(command, "Command");
+        // the simple name of nested classes requires their loader
+        this.name = command.getName();
+        this.simpleName = command.getSimpleName();
+
+        final Description descriptionAnnotation = command.getAnnotation(Description.class);
+        this.description = descriptionAnnotation == null ? "" : descriptionAnnotation.value();
+        this.deprecated = command.isAnnotationPresent(Deprecated.class);
+
+        final ImmutableList.Builder<ParamInfo> parameters = ImmutableList.builder();
+        final Param param = command.getAnnotation(Param.class);
+        if (param != null) {
+            parameters.add(new ParamInfo(param));
+        }
+        final Params paramsAnnotation = command.getAnnotation(Params.class);
+        if (paramsAnnotation != null) {
+            for (Param value : paramsAnnotation.value()) {
+                parameters.add(new ParamInfo(value));
+            }
+        }
+        this.params = parameters.build();
+
+        final ImmutableList.Builder<ThrowInfo> throwablesBuilder = ImmutableList.builder();
+        final Throw throwAnnotation = command.getAnnotation(Throw.class);
+        if (throwAnnotation != null) {
+            throwablesBuilder.add(new ThrowInfo(throwAnnotation));
+        }
+        final Throws throwsAnnotation = command.getAnnotation(Throws.class);
+        if (throwsAnnotation != null) {
+            for (Throw value : throwsAnnotation.value()) {
+                throwablesBuilder.add(new ThrowInfo(value));
+            }
+        }
+        this.throwables = throwablesBuilder.build();
+
+        final ImmutableList.Builder<ReturnInfo> returnsBuilder = ImmutableList.builder();
+        final Return returnAnnotation = command.getAnnotation(Return.class);
+        if (returnAnnotation != null) {
+            returnsBuilder.add(new ReturnInfo(returnAnnotation));
+        }
+        final Returns returnsAnnotation = command.getAnnotation(Returns.class);
+        if (returnsAnnotation != null) {
+            for (Return value : returnsAnnotation.value()) {
+                returnsBuilder.add(new ReturnInfo(value));
+            }
+        }
+        this.returns = returnsBuilder.build();
+
+        final ImmutableList.Builder<MetaInfo> metaBuilder = ImmutableList.builder();
+        for (Annotation annotation : command.getAnnotations()) {
+            if (annotation.annotationType().isAnnotationPresent(Meta.class)) {
+                metaBuilder.add(new MetaInfo(annotation));
+            }
+        }
+        this.metaInformations = metaBuilder.build();
+        this.caching = cachingOf(name, metaInformations);
+    }
+
+    private InspectedCommand(CommandIndex.Entry entry) {
+        Preconditions.checkNotNull(entry, "Entry");
+        this.name = entry.getName();
+        final String canonicalName = entry.getCanonicalName();
+        this.simpleName = canonicalName.substring(canonicalName.lastIndexOf('.') + 1);
+        this.description = entry.getDescription();
+        this.deprecated = entry.isDeprecated();
+
+        final ImmutableList.Builder<ParamInfo> parameters = ImmutableList.builder();
+        for (CommandIndex.ParamEntry param : entry.getParams()) {
+            parameters.add(new ParamInfo(param));
+        }
+        this.params = parameters.build();
+
+        final ImmutableList.Builder<ThrowInfo> throwablesBuilder = ImmutableList.builder();
+        for (CommandIndex.ThrowEntry throwEntry : entry.getThrows()) {
+            throwablesBuilder.add(new ThrowInfo(throwEntry));
+        }
+        this.throwables = throwablesBuilder.build();
+
+        final ImmutableList.Builder<ReturnInfo> returnsBuilder = ImmutableList.builder();
+        for (CommandIndex.ReturnEntry returnEntry : entry.getReturns()) {
+            returnsBuilder.add(new ReturnInfo(returnEntry));
+        }
+        this.returns = returnsBuilder.build();
+
+        final ImmutableList.Builder<MetaInfo> metaBuilder = ImmutableList.builder();
+        for (CommandIndex.MetaEntry meta : entry.getMetas()) {
+            metaBuilder.add(new MetaInfo(meta));
+        }
+        this.metaInformations = metaBuilder.build();
+        this.caching = cachingOf(name, metaInformations);
     }
 
-    public Class<? extends IpcCommand> getCommand() {
-        return command;
+    private static Caching cachingOf(String name, List<MetaInfo> infos) {
+        for (MetaInfo info : infos) {
+            if (Caching.isHint(info)) {
+                try {
+                    return Caching.of(info);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("invalid cache hint on " + name + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The command by name, kept for templates written against the loaded class.
+     *
+     * @return the name of the command class
+     * @deprecated the class is not kept anymore, use {@link #getName()} and {@link #getSimpleName()}
+     */
+    @Deprecated
+    public TypeName getCommand() {
+        return new TypeName(name, simpleName);
+    }
+
+    /**
+     * The binary name of this command, e.g. "com.acme.Outer$Inner".
+     *
+     * @return the class name
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getSimpleName() {
+        return simpleName;
     }
 
     /**
@@ -56,12 +214,7 @@ public final class InspectedCommand {
      * @return the description
      */
     public String getDescription() {
-        final Description description = command.getAnnotation(Description.class);
-        if (description == null) {
-            return "";
-        } else {
-            return description.value();
-        }
+        return description;
     }
 
     /**
@@ -70,7 +223,7 @@ public final class InspectedCommand {
      * @return true if deprecated, false otherwise
      */
     public boolean isDeprecated() {
-        return command.isAnnotationPresent(Deprecated.class);
+        return deprecated;
     }
 
     /**
@@ -79,92 +232,385 @@ public final class InspectedCommand {
      * @return true if meta information are present, false otherwise.
      */
     public boolean hasMetaInformations() {
-        for (Annotation annotation : command.getAnnotations()) {
-            if (annotation.annotationType().isAnnotationPresent(Meta.class)) {
-                return true;
-            }
-        }
-        return false;
+        return !metaInformations.isEmpty();
+    }
+
+    /**
+     * Provides all annotations of this command which are marked with {@link Meta}.
+     *
+     * @return an immutable list of all meta informations
+     */
+    public List<MetaInfo> getMetaInformations() {
+        return metaInformations;
+    }
+
+    /**
+     * Provides all meta informations, kept for templates written against the annotations.
+     *
+     * @return an immutable list of all meta informations
+     * @deprecated the annotations are not kept anymore, use {@link #getMetaInformations()}
+     */
+    @Deprecated
+    public List<MetaInfo> getMetaAnnotations() {
+        return metaInformations;
+    }
+
+    /**
+     * Checks whether clients may cache the results of this command.
+     *
+     * @return true if a {@link CacheHint} is present, false otherwise
+     */
+    public boolean isCacheable() {
+        return caching != null;
+    }
+
+    /**
+     * Provides the caching settings of this command.
+     *
+     * @return the settings of its {@link CacheHint} or null if not cacheable
+     */
+    public Caching getCaching() {
+        return caching;
     }
 
     /**
      * Checks whether this command has {@link Param}s defined.
      *
-     * @return a list of all {@link Param}s.
+     * @return an immutable list of all {@link Param}s.
      */
-    public List<Param> getParams() {
-        final List<Param> parameters = Lists.newArrayList();
+    public List<ParamInfo> getParams() {
+        return params;
+    }
 
-        final Param param = command.getAnnotation(Param.class);
-        if (param != null) {
-            parameters.add(param);
+    /**
+     * Checks whether this command has {@link Throw}s defined.
+     *
+     * @return an immutable list of all {@link Throw}s.
+     */
+    public List<ThrowInfo> getThrows() {
+        return throwables;
+    }
+
+    /**
+     * Checks whether this command has {@link Return}s defined.
+     *
+     * @return an immutable list of all {@link Return}s.
+     */
+    public List<ReturnInfo> getReturns() {
+        return returns;
+    }
+
+    /**
+     * Static factory method for {@link InspectedCommand}s.
+     *
+     * @param command the command being inspected
+     * @return an {@link InspectedCommand}
+     * @throws NullPointerException if command is null
+     * @throws IllegalArgumentException if the command declares an invalid {@link CacheHint}
+     */
+    public static InspectedCommand inspectCommand(Class<? extends IpcCommand> command) {
+        return new InspectedCommand(command);
+    }
+
+    /**
+     * Static factory method for {@link InspectedCommand}s of indexed commands,
+     * no class is loaded.
+     *
+     * @param entry the indexed command
+     * @return an {@link InspectedCommand}
+     * @throws NullPointerException if entry is null
+     * @throws IllegalArgumentException if the command declares an invalid {@link CacheHint}
+     */
+    static InspectedCommand inspectIndexed(CommandIndex.Entry entry) {
+        return new InspectedCommand(entry);
+    }
+
+    /**
+     * Reads all attributes of an annotation as strings, ordered by name. Classes are
+     * represented by their name, arrays like {@link Arrays#toString(Object[])}.
+     *
+     * @param annotation the annotation
+     * @return the attribute names and values
+     */
+    static SortedMap<String, String> attributesOf(Annotation annotation) {
+        final SortedMap<String, String> attributes = Maps.newTreeMap();
+        final Method[] methods = annotation.annotationType().getDeclaredMethods();
+        Arrays.sort(methods, BY_NAME);
+        for (Method method : methods) {
+            if (method.getParameterTypes().length > 0) {
+                continue;
+            }
+            try {
+                method.setAccessible(true);
+                attributes.put(method.getName(), format(method.invoke(annotation)));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("cannot read " + method, e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("cannot read " + method, e.getCause());
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Reads the types of all attributes of an annotation by canonical name, e.g. "long"
+     * or "java.lang.String[]", ordered by name.
+     *
+     * @param annotation the annotation
+     * @return the attribute names and types
+     */
+    static SortedMap<String, String> attributeTypesOf(Annotation annotation) {
+        final SortedMap<String, String> types = Maps.newTreeMap();
+        for (Method method : annotation.annotationType().getDeclaredMethods()) {
+            if (method.getParameterTypes().length == 0) {
+                types.put(method.getName(), method.getReturnType().getCanonicalName());
+            }
         }
+        return types;
+    }
 
-        final Params params = command.getAnnotation(Params.class);
-        if (params != null) {
-            for (Param p : params.value()) {
-                parameters.add(p);
+    private static String format(Object value) {
+        if (value instanceof Class<?>) {
+            return Class.class.cast(value).getName();
+        } else if (value != null && value.getClass().isArray()) {
+            final List<String> elements = Lists.newArrayList();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                elements.add(format(Array.get(value, i)));
             }
+            return elements.toString();
+        } else {
+            return String.valueOf(value);
         }
+    }
 
-        return parameters;
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
     }
 
     /**
-     * Checks whether this command has {@link Throw}s defined.
-     *
-     * @return a list of all {@link Throw}s.
+     * The name of a class without the class itself.
      */
-    public List<Throw> getThrows() {
-        final List<Throw> throwables = Lists.newArrayList();
+    public static final class TypeName {
 
-        final Throw throwAnnotation = command.getAnnotation(Throw.class);
-        if (throwAnnotation != null) {
-            throwables.add(throwAnnotation);
+        private final String name;
+
+        private final String simpleName;
+
+        TypeName(Class<?> type) {
+            this.name = type.getName();
+            this.simpleName = type.getSimpleName();
         }
 
-        final Throws throwsAnnotation = command.getAnnotation(Throws.class);
-        if (throwsAnnotation != null) {
-            for (Throw t : throwsAnnotation.value()) {
-                throwables.add(t);
-            }
+        TypeName(String name) {
+            this(name, simpleNameOf(name));
+        }
+
+        TypeName(String name, String simpleName) {
+            this.name = Preconditions.checkNotNull(name, "Name");
+            this.simpleName = Preconditions.checkNotNull(simpleName, "SimpleName");
+        }
+
+        // like Class.getSimpleName() for top level and member classes
+        static String simpleNameOf(String binaryName) {
+            final int index = Math.max(binaryName.lastIndexOf('.'), binaryName.lastIndexOf('$'));
+            return binaryName.substring(index + 1);
+        }
+
+        /**
+         * The binary name, like {@link Class#getName()}.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getSimpleName() {
+            return simpleName;
+        }
+
+        @Override
+        public String toString() {
+            return name;
         }
 
-        return throwables;
     }
 
     /**
-     * Checks whether this command has {@link Return}s defined.
-     *
-     * @return a list of all {@link Return}s.
+     * A copy of a {@link Param}, its methods are named like the ones of the annotation.
      */
-    public List<Return> getReturns() {
-        final List<Return> returns = Lists.newArrayList();
+    public static final class ParamInfo {
 
-        final Return returnAnnotation = command.getAnnotation(Return.class);
-        if (returnAnnotation != null) {
-            returns.add(returnAnnotation);
+        private final String name;
+
+        private final String description;
+
+        private final String type;
+
+        private final boolean optional;
+
+        private final String defaultValue;
+
+        ParamInfo(Param param) {
+            this.name = param.name();
+            this.description = nullToEmpty(param.description());
+            this.type = nullToEmpty(param.type());
+            this.optional = param.optional();
+            this.defaultValue = nullToEmpty(param.defaultValue());
         }
 
-        final Returns returnsAnnotation = command.getAnnotation(Returns.class);
-        if (returnsAnnotation != null) {
-            for (Return r : returnsAnnotation.value()) {
-                returns.add(r);
-            }
+        ParamInfo(CommandIndex.ParamEntry param) {
+            this.name = param.getName();
+            this.description = nullToEmpty(param.getDescription());
+            this.type = nullToEmpty(param.getType());
+            this.optional = param.isOptional();
+            this.defaultValue = nullToEmpty(param.getDefaultValue());
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public String description() {
+            return description;
+        }
+
+        public String type() {
+            return type;
+        }
+
+        public boolean optional() {
+            return optional;
+        }
+
+        public String defaultValue() {
+            return defaultValue;
         }
 
-        return returns;
     }
 
     /**
-     * Static factory method for {@link InspectedCommand}s.
-     *
-     * @param command the command being inspected
-     * @return an {@link InspectedCommand}
-     * @throws NullPointerException if command is null
+     * A copy of a {@link Return}, its methods are named like the ones of the annotation.
      */
-    public static InspectedCommand inspectCommand(Class<? extends IpcCommand> command) {
-        return new InspectedCommand(command);
+    public static final class ReturnInfo {
+
+        private final String name;
+
+        private final String description;
+
+        ReturnInfo(Return value) {
+            this.name = value.name();
+            this.description = nullToEmpty(value.description());
+        }
+
+        ReturnInfo(CommandIndex.ReturnEntry value) {
+            this.name = value.getName();
+            this.description = nullToEmpty(value.getDescription());
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public String description() {
+            return description;
+        }
+
+    }
+
+    /**
+     * A copy of a {@link Throw}, its methods are named like the ones of the annotation
+     * but the thrown class is only available by name.
+     */
+    public static final class ThrowInfo {
+
+        private final TypeName name;
+
+        private final String description;
+
+        ThrowInfo(Throw value) {
+            this.name = new TypeName(value.name());
+            this.description = nullToEmpty(value.description());
+        }
+
+        ThrowInfo(CommandIndex.ThrowEntry value) {
+            this.name = new TypeName(value.getName());
+            this.description = nullToEmpty(value.getDescription());
+        }
+
+        public TypeName name() {
+            return name;
+        }
+
+        public String description() {
+            return description;
+        }
+
+    }
+
+    /**
+     * A copy of an annotation marked with {@link Meta}, all attributes are kept
+     * as strings like in {@link #attributesOf(Annotation)}.
+     */
+    public static final class MetaInfo {
+
+        private final TypeName type;
+
+        private final SortedMap<String, String> attributes;
+
+        private final SortedMap<String, String> attributeTypes;
+
+        MetaInfo(Annotation annotation) {
+            this.type = new TypeName(annotation.annotationType());
+            this.attributes = Collections.unmodifiableSortedMap(attributesOf(annotation));
+            this.attributeTypes = Collections.unmodifiableSortedMap(attributeTypesOf(annotation));
+        }
+
+        MetaInfo(CommandIndex.MetaEntry meta) {
+            this.type = new TypeName(meta.getType(), meta.getSimpleName());
+            this.attributes = Collections.unmodifiableSortedMap(Maps.newTreeMap(meta.getAttributes()));
+            this.attributeTypes = Collections.unmodifiableSortedMap(Maps.newTreeMap(meta.getAttributeTypes()));
+        }
+
+        public TypeName getType() {
+            return type;
+        }
+
+        /**
+         * The annotation type, named like the method of {@link Annotation}.
+         *
+         * @return the name of the annotation type
+         * @deprecated use {@link #getType()}
+         */
+        @Deprecated
+        public TypeName annotationType() {
+            return type;
+        }
+
+        public SortedMap<String, String> getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * Provides a single attribute.
+         *
+         * @param attribute the attribute name
+         * @return the value or null if the annotation has no such attribute
+         */
+        public String get(String attribute) {
+            return attributes.get(attribute);
+        }
+
+        /**
+         * Provides the type of a single attribute by canonical name, e.g. "long".
+         *
+         * @param attribute the attribute name
+         * @return the type or null if the annotation has no such attribute
+         */
+        public String getAttributeType(String attribute) {
+            return attributeTypes.get(attribute);
+        }
+
     }
     
 }
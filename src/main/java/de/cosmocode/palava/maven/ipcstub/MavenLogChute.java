@@ -0,0 +1,131 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.log.LogChute;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Passes Velocity's log messages to the maven logger. Messages of a thread which
+ * renders for a single generator go to that generator's log instead.
+ */
+final class MavenLogChute implements LogChute {
+
+    // replaced when the engine is reused by another execution
+    private volatile Log log;
+
+    // the log of the generator the current thread renders for, if any
+    private final ThreadLocal<Log> generatorLog = new ThreadLocal<Log>();
+
+    MavenLogChute(Log log) {
+        setLog(log);
+    }
+
+    void setLog(Log log) {
+        this.log = Preconditions.checkNotNull(log, "Log");
+    }
+
+    /**
+     * Routes all messages of the current thread to the given log until {@link #detach()}.
+     *
+     * @param currentLog the log of the generator the current thread renders for
+     */
+    void attach(Log currentLog) {
+        generatorLog.set(Preconditions.checkNotNull(currentLog, "Log"));
+    }
+
+    /**
+     * Routes all messages of the current thread to the log of the execution again.
+     */
+    void detach() {
+        generatorLog.remove();
+    }
+
+    private Log target() {
+        final Log currentLog = generatorLog.get();
+        return currentLog == null ? log : currentLog;
+    }
+
+    @Override
+    public void init(RuntimeServices runtimeServices) throws Exception {
+        // nothing to do
+    }
+
+    @Override
+    public void log(int i, String s) {
+        final Log target = target();
+        switch (i) {
+            case LogChute.TRACE_ID:
+            case LogChute.DEBUG_ID:
+                target.debug(s);
+                break;
+            case LogChute.INFO_ID:
+                target.info(s);
+                break;
+            case LogChute.WARN_ID:
+                target.warn(s);
+                break;
+            case LogChute.ERROR_ID:
+                target.error(s);
+                break;
+            default: 
+        }
+    }
+
+    @Override
+    public void log(int i, String s, Throwable throwable) {
+        final Log target = target();
+        switch (i) {
+            case LogChute.TRACE_ID:
+            case LogChute.DEBUG_ID:
+                target.debug(s, throwable);
+                break;
+            case LogChute.INFO_ID:
+                target.info(s, throwable);
+                break;
+            case LogChute.WARN_ID:
+                target.warn(s, throwable);
+                break;
+            case LogChute.ERROR_ID:
+                target.error(s, throwable);
+                break;
+            default: 
+        }
+    }
+
+    @Override
+    public boolean isLevelEnabled(int i) {
+        final Log target = target();
+        switch (i) {
+            case LogChute.TRACE_ID:
+            case LogChute.DEBUG_ID:
+                return target.isDebugEnabled();
+            case LogChute.INFO_ID:
+                return target.isInfoEnabled();
+            case LogChute.WARN_ID:
+                return target.isWarnEnabled();
+            case LogChute.ERROR_ID:
+                return target.isErrorEnabled();
+            default:
+                return false;
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Conservative minification of C-like sources. Block comments except license comments
+ * starting with "/*!", line comments on their own line, indentation, trailing whitespace
+ * and empty lines are removed. Other line comments are kept unchanged. Line breaks and
+ * string literals are kept, so the result never depends on automatic semicolon
+ * insertion. The comment syntax depends on the language, see {@link Syntax}; files of
+ * other languages are never minified.
+ */
+final class Minifier {
+
+    // javascript keywords after which a slash starts a regular expression
+    private static final Set<String> REGEX_KEYWORDS = ImmutableSet.of("return", "typeof", "instanceof", "in", 
+        "of", "new", "delete", "void", "throw", "case", "do", "else", "yield", "await");
+
+    // javascript punctuators after which a slash starts a regular expression
+    private static final String REGEX_PUNCTUATORS = "(,=:[!&|?{};+-*%<>~^";
+
+    /**
+     * The languages which can be minified.
+     */
+    enum Syntax {
+
+        /**
+         * Javascript, regular expression literals are kept.
+         */
+        JAVASCRIPT,
+
+        /**
+         * PHP, with shell style line comments. Docblocks are kept, frameworks read their
+         * annotations at runtime. Sources containing heredocs are not minified.
+         */
+        PHP,
+
+        /**
+         * Java.
+         */
+        JAVA;
+
+        /**
+         * Chooses the syntax of a generated file by its extension.
+         *
+         * @param fileName the file name
+         * @return the syntax or null if files of this type can't be minified
+         */
+        static Syntax of(String fileName) {
+            if (fileName.endsWith(".js")) {
+                return JAVASCRIPT;
+            } else if (fileName.endsWith(".php")) {
+                return PHP;
+            } else if (fileName.endsWith(".java")) {
+                return JAVA;
+            } else {
+                return null;
+            }
+        }
+
+    }
+
+    private Minifier() {
+        
+    }
+
+    /**
+     * Minifies the given source.
+     *
+     * @param source the source
+     * @param syntax the language of the source
+     * @return the minified source
+     */
+    static String minify(String source, Syntax syntax) {
+        Preconditions.checkNotNull(syntax, "Syntax");
+        if (syntax == Syntax.PHP && source.indexOf("<<<") != -1) {
+            return source;
+        }
+
+        final StringBuilder builder = new StringBuilder(source.length());
+        final int length = source.length();
+        boolean lineStart = true;
+        int i = 0;
+        while (i < length) {
+            final char c = source.charAt(i);
+            final char next = i + 1 < length ? source.charAt(i + 1) : 0;
+
+            if (lineStart && (c == ' ' || c == '\t')) {
+                i++;
+            } else if (c == '\r' || c == '\n') {
+                trimTrailing(builder);
+                if (builder.length() > 0 && builder.charAt(builder.length() - 1) != '\n') {
+                    builder.append('\n');
+                }
+                lineStart = true;
+                i++;
+            } else if (c == '"' || c == '\'' || c == '`') {
+                i = copyString(source, i, builder);
+                lineStart = false;
+            } else if (c == '/' && next == '*' && isKept(source, i, syntax)) {
+                final int end = source.indexOf("*/", i + 2);
+                final int stop = end == -1 ? length : end + 2;
+                builder.append(source, i, stop);
+                i = stop;
+                lineStart = false;
+            } else if (c == '/' && next == '*') {
+                final int end = source.indexOf("*/", i + 2);
+                i = end == -1 ? length : end + 2;
+                // keeps tokens apart which were separated by the comment
+                final int last = builder.length() - 1;
+                if (!lineStart && last >= 0 && !Character.isWhitespace(builder.charAt(last))) {
+                    builder.append(' ');
+                }
+            } else if (lineStart && c == '/' && next == '/') {
+                while (i < length && source.charAt(i) != '\n' && source.charAt(i) != '\r') {
+                    i++;
+                }
+            } else if ((c == '/' && next == '/') || (c == '#' && syntax == Syntax.PHP)) {
+                // trailing and shell style comments may contain quotes, keep them as they are
+                while (i < length && source.charAt(i) != '\n' && source.charAt(i) != '\r') {
+                    builder.append(source.charAt(i));
+                    i++;
+                }
+                lineStart = false;
+            } else if (c == '/' && syntax == Syntax.JAVASCRIPT && startsRegex(builder)) {
+                i = copyRegex(source, i, builder);
+                lineStart = false;
+            } else {
+                builder.append(c);
+                lineStart = false;
+                i++;
+            }
+        }
+        trimTrailing(builder);
+        if (builder.length() > 0 && builder.charAt(builder.length() - 1) != '\n') {
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static boolean isKept(String source, int start, Syntax syntax) {
+        final char third = start + 2 < source.length() ? source.charAt(start + 2) : 0;
+        if (third == '!') {
+            return true;
+        }
+        // docblocks, but not the empty comment "/**/"
+        return syntax == Syntax.PHP && third == '*' && start + 3 < source.length()
+            && source.charAt(start + 3) != '/';
+    }
+
+    // whether a slash after the given output starts a regular expression instead of a division
+    private static boolean startsRegex(StringBuilder builder) {
+        int end = builder.length();
+        while (end > 0 && (builder.charAt(end - 1) == ' ' || builder.charAt(end - 1) == '\t')) {
+            end--;
+        }
+        if (end == 0 || builder.charAt(end - 1) == '\n') {
+            return true;
+        }
+        final char last = builder.charAt(end - 1);
+        if (REGEX_PUNCTUATORS.indexOf(last) != -1) {
+            return true;
+        }
+        int start = end;
+        while (start > 0 && Character.isJavaIdentifierPart(builder.charAt(start - 1))) {
+            start--;
+        }
+        return start < end && REGEX_KEYWORDS.contains(builder.substring(start, end));
+    }
+
+    private static int copyRegex(String source, int start, StringBuilder builder) {
+        builder.append('/');
+        boolean characterClass = false;
+        int i = start + 1;
+        while (i < source.length()) {
+            final char c = source.charAt(i);
+            if (c == '\n' || c == '\r') {
+                break;
+            }
+            builder.append(c);
+            i++;
+            if (c == '\\' && i < source.length()) {
+                builder.append(source.charAt(i));
+                i++;
+            } else if (c == '[') {
+                characterClass = true;
+            } else if (c == ']') {
+                characterClass = false;
+            } else if (c == '/' && !characterClass) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int copyString(String source, int start, StringBuilder builder) {
+        final char quote = source.charAt(start);
+        builder.append(quote);
+        int i = start + 1;
+        while (i < source.length()) {
+            final char c = source.charAt(i);
+            builder.append(c);
+            i++;
+            if (c == '\\' && i < source.length()) {
+                builder.append(source.charAt(i));
+                i++;
+            } else if (c == quote) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static void trimTrailing(StringBuilder builder) {
+        int end = builder.length();
+        while (end > 0 && (builder.charAt(end - 1) == ' ' || builder.charAt(end - 1) == '\t')) {
+            end--;
+        }
+        builder.setLength(end);
+    }
+
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Classifies class names for all generators at once. The include and exclude packages
+ * of every generator are compiled into one trie of package segments. A pattern matches
+ * a class if it matches the class's package or one of its parent packages. Segments
+ * may be "*" for exactly one or "**" for any number of package segments, e.g.
+ * "com.acme.**.internal".
+ */
+final class PackageMatcher {
+
+    private static final String ANY = "*";
+    private static final String ANY_DEPTH = "**";
+
+    private final Node root = new Node();
+
+    private final int size;
+
+    // literal package prefixes of all includes
+    private final Set<String> prefixes = Sets.newLinkedHashSet();
+
+    // false if any include starts with a wildcard
+    private boolean restricted = true;
+
+    private PackageMatcher(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Compiles the packages and excludes of the given generators.
+     *
+     * @param generators all generators, their position is used as index in match results
+     * @return a new matcher
+     * @throws IllegalArgumentException if a pattern is invalid
+     */
+    static PackageMatcher compile(List<Generator> generators) {
+        final PackageMatcher matcher = new PackageMatcher(generators.size());
+        for (int i = 0; i < generators.size(); i++) {
+            final Generator generator = generators.get(i);
+            for (String pattern : generator.getPackages()) {
+                matcher.add(pattern, i, true);
+            }
+            if (generator.getExcludes() != null) {
+                for (String pattern : generator.getExcludes()) {
+                    matcher.add(pattern, i, false);
+                }
+            }
+        }
+        return matcher;
+    }
+
+    private void add(String pattern, int index, boolean include) {
+        Preconditions.checkNotNull(pattern, "Pattern");
+        final String[] segments = pattern.split("\\.", -1);
+        final StringBuilder prefix = new StringBuilder();
+        boolean literal = true;
+
+        Node node = root;
+        for (String segment : segments) {
+            if (segment.length() == 0) {
+                throw new IllegalArgumentException("invalid package pattern: " + pattern);
+            } else if (ANY_DEPTH.equals(segment)) {
+                if (node.anyDepth == null) {
+                    node.anyDepth = new Node();
+                    node.anyDepth.isAnyDepth = true;
+                }
+                node = node.anyDepth;
+                literal = false;
+            } else if (ANY.equals(segment)) {
+                if (node.any == null) {
+                    node.any = new Node();
+                }
+                node = node.any;
+                literal = false;
+            } else if (segment.indexOf('*') != -1) {
+                throw new IllegalArgumentException("wildcards must span a whole segment: " + pattern);
+            } else {
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+                if (literal) {
+                    prefix.append(prefix.length() == 0 ? "" : ".").append(segment);
+                }
+            }
+        }
+
+        if (include) {
+            node.includes.set(index);
+            if (prefix.length() == 0) {
+                restricted = false;
+            } else {
+                prefixes.add(prefix.toString());
+            }
+        } else {
+            node.excludes.set(index);
+        }
+    }
+
+    /**
+     * Computes which generators want the given class.
+     *
+     * @param className the binary class name
+     * @return the indices of all generators including and not excluding the class
+     */
+    BitSet match(String className) {
+        final BitSet includes = new BitSet(size);
+        final BitSet excludes = new BitSet(size);
+
+        List<Node> states = Lists.newArrayList();
+        enter(root, states);
+        collect(states, includes, excludes);
+
+        int start = 0;
+        int end = className.indexOf('.');
+        while (end != -1 && !states.isEmpty()) {
+            final String segment = className.substring(start, end);
+            final List<Node> next = Lists.newArrayList();
+            for (Node state : states) {
+                final Node child = state.children.get(segment);
+                if (child != null) {
+                    enter(child, next);
+                }
+                if (state.any != null) {
+                    enter(state.any, next);
+                }
+                if (state.isAnyDepth) {
+                    // consumes the segment and stays
+                    enter(state, next);
+                }
+            }
+            states = next;
+            collect(states, includes, excludes);
+            start = end + 1;
+            end = className.indexOf('.', start);
+        }
+
+        includes.andNot(excludes);
+        return includes;
+    }
+
+    /**
+     * Checks whether any generator wants the given class.
+     *
+     * @param className the binary class name
+     * @return true if at least one generator includes and does not exclude the class
+     */
+    boolean matchesAny(String className) {
+        return !match(className).isEmpty();
+    }
+
+    /**
+     * Checks whether all includes start with a literal package.
+     *
+     * @return true if {@link #getPrefixes()} covers all includes
+     */
+    boolean isRestricted() {
+        return restricted;
+    }
+
+    /**
+     * The literal packages all includes start with, e.g. "com.acme" for "com.acme.*.api".
+     *
+     * @return the literal include prefixes
+     */
+    Set<String> getPrefixes() {
+        return prefixes;
+    }
+
+    private static void enter(Node node, List<Node> states) {
+        if (states.contains(node)) {
+            return;
+        }
+        states.add(node);
+        // ** may match no segment at all
+        if (node.anyDepth != null) {
+            enter(node.anyDepth, states);
+        }
+    }
+
+    private static void collect(List<Node> states, BitSet includes, BitSet excludes) {
+        for (Node state : states) {
+            includes.or(state.includes);
+            excludes.or(state.excludes);
+        }
+    }
+
+    /**
+     * A single package segment in the trie.
+     */
+    private static final class Node {
+
+        private final Map<String, Node> children = Maps.newHashMap();
+
+        private Node any;
+
+        private Node anyDepth;
+
+        private boolean isAnyDepth;
+
+        private final BitSet includes = new BitSet();
+
+        private final BitSet excludes = new BitSet();
+
+    }
+
+}
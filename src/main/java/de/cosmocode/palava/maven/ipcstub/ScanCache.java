@@ -0,0 +1,240 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Persistent cache of {@link ClassHeader}s per classpath element. An element is
+ * identified by its path and a fingerprint of its size and modification date,
+ * directories by a fingerprint of all contained class files.
+ */
+final class ScanCache {
+
+    private static final String VERSION = "ipcstub-scan-cache 1";
+
+    private static final String ELEMENT = "E";
+    private static final String CLASS = "C";
+
+    private static final char SEPARATOR = '\t';
+
+    private final Map<String, Entry> loaded = Maps.newHashMap();
+
+    private final Map<String, Entry> used = Maps.newLinkedHashMap();
+
+    private int hits;
+
+    private int misses;
+
+    /**
+     * Provides the cached headers of the given element.
+     *
+     * @param location the classpath element
+     * @param fingerprint the current fingerprint of the element
+     * @return the cached headers or null if missing or outdated
+     */
+    List<ClassHeader> get(File location, String fingerprint) {
+        final Entry entry = loaded.get(location.getAbsolutePath());
+        if (entry == null || !entry.fingerprint.equals(fingerprint)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        used.put(location.getAbsolutePath(), entry);
+        return entry.headers;
+    }
+
+    /**
+     * Records the headers of the given element.
+     *
+     * @param location the classpath element
+     * @param fingerprint the fingerprint of the scanned element
+     * @param headers the scanned headers
+     */
+    void put(File location, String fingerprint, List<ClassHeader> headers) {
+        used.put(location.getAbsolutePath(), new Entry(fingerprint, headers));
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Computes the fingerprint of a classpath element.
+     *
+     * @param location a directory or jar file
+     * @return the fingerprint
+     */
+    static String fingerprint(File location) {
+        if (location.isDirectory()) {
+            final StringBuilder builder = new StringBuilder();
+            fingerprint(location, "", builder);
+            return "d" + DigestUtils.md5Hex(builder.toString());
+        } else {
+            return "f" + location.length() + "-" + location.lastModified();
+        }
+    }
+
+    private static void fingerprint(File directory, String prefix, StringBuilder builder) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // listFiles has no defined order
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                fingerprint(file, prefix + file.getName() + "/", builder);
+            } else if (file.getName().endsWith(".class")) {
+                builder.append(prefix).append(file.getName()).append(SEPARATOR);
+                builder.append(file.length()).append(SEPARATOR).append(file.lastModified()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Loads a cache from disk. A missing, outdated or broken file results in an empty cache.
+     *
+     * @param file the cache file
+     * @return the loaded cache
+     */
+    static ScanCache load(File file) {
+        final ScanCache cache = new ScanCache();
+        if (!file.isFile()) {
+            return cache;
+        }
+
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            final BufferedReader lines = new BufferedReader(reader);
+            if (!VERSION.equals(lines.readLine())) {
+                return cache;
+            }
+
+            String location = null;
+            String fingerprint = null;
+            List<ClassHeader> headers = null;
+
+            String line;
+            while ((line = lines.readLine()) != null) {
+                final String[] parts = line.split(String.valueOf(SEPARATOR), -1);
+                if (ELEMENT.equals(parts[0])) {
+                    if (location != null) {
+                        cache.loaded.put(location, new Entry(fingerprint, headers));
+                    }
+                    location = parts[1];
+                    fingerprint = parts[2];
+                    headers = Lists.newArrayList();
+                } else if (CLASS.equals(parts[0]) && headers != null) {
+                    final List<String> interfaces = parts[4].length() == 0
+                        ? ImmutableList.<String>of() : Arrays.asList(parts[4].split(","));
+                    final String superName = parts[2].length() == 0 ? null : parts[2];
+                    headers.add(new ClassHeader(parts[1], superName, interfaces, "1".equals(parts[3])));
+                } else {
+                    throw new IOException("invalid line: " + line);
+                }
+            }
+            if (location != null) {
+                cache.loaded.put(location, new Entry(fingerprint, headers));
+            }
+        } catch (IOException e) {
+            cache.loaded.clear();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            cache.loaded.clear();
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return cache;
+    }
+
+    /**
+     * Stores all entries used since loading. Entries of elements which are no longer
+     * on the classpath are dropped.
+     *
+     * @param file the cache file
+     * @throws IOException if writing failed
+     */
+    void store(File file) throws IOException {
+        final File parent = file.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("cannot create directory " + parent);
+        }
+
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write(VERSION);
+            writer.write('\n');
+            final Joiner joiner = Joiner.on(SEPARATOR);
+            for (Map.Entry<String, Entry> element : used.entrySet()) {
+                writer.write(joiner.join(ELEMENT, element.getKey(), element.getValue().fingerprint));
+                writer.write('\n');
+                for (ClassHeader header : element.getValue().headers) {
+                    writer.write(joiner.join(CLASS, header.getName(),
+                        header.getSuperName() == null ? "" : header.getSuperName(),
+                        header.isConcrete() ? "1" : "0",
+                        Joiner.on(',').join(header.getInterfaces())));
+                    writer.write('\n');
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Cached scan result of one classpath element.
+     */
+    private static final class Entry {
+
+        private final String fingerprint;
+
+        private final List<ClassHeader> headers;
+
+        Entry(String fingerprint, List<ClassHeader> headers) {
+            this.fingerprint = Preconditions.checkNotNull(fingerprint, "Fingerprint");
+            this.headers = ImmutableList.copyOf(headers);
+        }
+
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A classloader for the runtime classpath of the scanned project. Every execution uses
+ * its own loader which is closed after use. Optionally a bounded number of loaders is kept
+ * in a static cache keyed by a fingerprint of the classpath, so executions with an identical
+ * classpath within the same JVM share one loader.
+ */
+final class ScanClassLoader extends URLClassLoader {
+
+    // fingerprint to loader, in access order
+    private static final Map<String, ScanClassLoader> CACHE = 
+        new LinkedHashMap<String, ScanClassLoader>(16, 0.75f, true);
+
+    private final String fingerprint;
+
+    // guarded by CACHE
+    private int leases;
+
+    // guarded by CACHE
+    private boolean cached;
+
+    private ScanClassLoader(URL[] urls, ClassLoader parent, String fingerprint) {
+        super(urls, parent);
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Provides a loader for the given classpath. Every loader has to be {@link #release()}d.
+     *
+     * @param locations the classpath elements
+     * @param parent the parent loader, usually the plugin's loader
+     * @param cacheSize the maximum number of loaders to keep between executions, 0 disables caching
+     * @return a loader for the given classpath
+     */
+    static ScanClassLoader acquire(List<File> locations, ClassLoader parent, int cacheSize) {
+        final URL[] urls = new URL[locations.size()];
+        for (int i = 0; i < urls.length; i++) {
+            try {
+                urls[i] = locations.get(i).toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        if (cacheSize <= 0) {
+            final ScanClassLoader loader = new ScanClassLoader(urls, parent, null);
+            loader.leases = 1;
+            return loader;
+        }
+
+        final String fingerprint = fingerprint(locations, parent);
+        synchronized (CACHE) {
+            ScanClassLoader loader = CACHE.get(fingerprint);
+            if (loader == null) {
+                loader = new ScanClassLoader(urls, parent, fingerprint);
+                loader.cached = true;
+                CACHE.put(fingerprint, loader);
+                evict(cacheSize);
+            }
+            loader.leases++;
+            return loader;
+        }
+    }
+
+    private static String fingerprint(List<File> locations, ClassLoader parent) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(System.identityHashCode(parent)).append('\n');
+        for (File location : locations) {
+            builder.append(location.getAbsolutePath()).append('\t');
+            builder.append(ScanCache.fingerprint(location)).append('\n');
+        }
+        return DigestUtils.md5Hex(builder.toString());
+    }
+
+    private static void evict(int cacheSize) {
+        final Iterator<ScanClassLoader> iterator = CACHE.values().iterator();
+        while (CACHE.size() > cacheSize && iterator.hasNext()) {
+            final ScanClassLoader eldest = iterator.next();
+            iterator.remove();
+            eldest.cached = false;
+            if (eldest.leases == 0) {
+                eldest.closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Releases this loader. Uncached loaders are closed as soon as no execution uses them.
+     */
+    void release() {
+        final boolean close;
+        synchronized (CACHE) {
+            Preconditions.checkState(leases > 0, "%s already released", this);
+            leases--;
+            close = leases == 0 && !cached;
+        }
+        if (close) {
+            closeQuietly();
+        }
+    }
+
+    private void closeQuietly() {
+        // URLClassLoader is closeable since java 7
+        final Object self = this;
+        if (self instanceof Closeable) {
+            try {
+                Closeable.class.cast(self).close();
+            } catch (IOException e) {
+                // nothing we can do about it
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ScanClassLoader [" + (fingerprint == null ? "uncached" : fingerprint) + "]";
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.maven.execution.MavenSession;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * Keeps the {@link ClassHeader}s of every scanned classpath element for the whole
+ * maven session, so shared jars are scanned at most once per reactor build. Only the
+ * latest scan of an element is kept, a changed fingerprint replaces it. Safe to use from
+ * modules built in parallel; concurrent requests for the same element wait for the first scan.
+ */
+final class SessionScanCache {
+
+    // one cache per build, released together with the build's start time
+    private static final Map<Object, SessionScanCache> BUILDS = new WeakHashMap<Object, SessionScanCache>();
+
+    // path to the latest scan
+    private final ConcurrentMap<String, Element> elements = Maps.newConcurrentMap();
+
+    private SessionScanCache() {
+        
+    }
+
+    /**
+     * Provides the cache of the build the given session belongs to. Parallel reactor builds
+     * clone the session for every module, all clones share the start time of the build.
+     *
+     * @param session the current maven session
+     * @return the build's cache
+     */
+    static SessionScanCache of(MavenSession session) {
+        Preconditions.checkNotNull(session, "Session");
+        return forBuild(session.getStartTime() == null ? session : session.getStartTime());
+    }
+
+    /**
+     * Provides the cache of the given build.
+     *
+     * @param build identifies the build, equal for all sessions of it
+     * @return the build's cache
+     */
+    static SessionScanCache forBuild(Object build) {
+        Preconditions.checkNotNull(build, "Build");
+        synchronized (BUILDS) {
+            SessionScanCache cache = BUILDS.get(build);
+            if (cache == null) {
+                cache = new SessionScanCache();
+                BUILDS.put(build, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Provides the headers of the given element, scanning it if this build did not yet.
+     *
+     * @param location the classpath element
+     * @param fingerprint the current fingerprint of the element
+     * @param scan computes the headers if unknown
+     * @return the headers of the element
+     * @throws IOException if scanning failed
+     */
+    List<ClassHeader> get(File location, String fingerprint, Callable<List<ClassHeader>> scan) throws IOException {
+        final String key = location.getAbsolutePath();
+        Element element;
+        while (true) {
+            final Element known = elements.get(key);
+            if (known != null && known.fingerprint.equals(fingerprint)) {
+                element = known;
+                break;
+            }
+            // unknown or changed, the previous scan is dropped
+            final Element created = new Element(fingerprint, new FutureTask<List<ClassHeader>>(scan));
+            if (known == null ? elements.putIfAbsent(key, created) == null : elements.replace(key, known, created)) {
+                element = created;
+                element.task.run();
+                break;
+            }
+        }
+
+        try {
+            return element.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while scanning " + location);
+        } catch (ExecutionException e) {
+            // allow other modules to retry
+            elements.remove(key, element);
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * The scan of one element with the fingerprint it was requested for.
+     */
+    private static final class Element {
+
+        private final String fingerprint;
+
+        private final FutureTask<List<ClassHeader>> task;
+
+        private Element(String fingerprint, FutureTask<List<ClassHeader>> task) {
+            this.fingerprint = Preconditions.checkNotNull(fingerprint, "Fingerprint");
+            this.task = task;
+        }
+
+    }
+
+}
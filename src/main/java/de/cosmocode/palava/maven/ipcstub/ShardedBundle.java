@@ -0,0 +1,274 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Splits the generated files of a generator into bundles of a limited size, so clients
+ * only download the parts they use. Files are grouped by the package they belong to and
+ * the groups are packed in generation order, a package is only split if it exceeds the
+ * budget on its own. Files of commands and packages are tracked by name, everything else
+ * is considered common to all shards.
+ */
+final class ShardedBundle {
+
+    private static final int VERSION = 1;
+
+    private final long budget;
+
+    // package name to its files in generation order, common files use null
+    private final Map<String, List<Piece>> groups = Maps.newLinkedHashMap();
+
+    private List<Shard> shards;
+
+    ShardedBundle(long budget) {
+        Preconditions.checkArgument(budget > 0, "budget must be positive but was %s", budget);
+        this.budget = budget;
+    }
+
+    /**
+     * Adds a generated file.
+     *
+     * @param args the arguments the file was rendered with
+     * @param content the file content
+     */
+    void add(Object args, byte[] content) {
+        Preconditions.checkState(shards == null, "already packed");
+        final Piece piece;
+        final String group;
+        if (args instanceof GenCommand) {
+            piece = new Piece(GenCommand.class.cast(args).getFullName(), ClassMap.COMMAND, content);
+            final int index = piece.name.lastIndexOf('.');
+            group = index == -1 ? "" : piece.name.substring(0, index);
+        } else if (args instanceof GenPackage) {
+            piece = new Piece(GenPackage.class.cast(args).getFullName(), ClassMap.PACKAGE, content);
+            group = piece.name;
+        } else {
+            piece = new Piece(null, null, content);
+            group = null;
+        }
+        List<Piece> pieces = groups.get(group);
+        if (pieces == null) {
+            pieces = Lists.newArrayList();
+            groups.put(group, pieces);
+        }
+        pieces.add(piece);
+    }
+
+    /**
+     * Packs all added files into shards. Files can't be added afterwards.
+     *
+     * @return the contents of all shards in order
+     */
+    List<byte[]> pack() {
+        Preconditions.checkState(shards == null, "already packed");
+        shards = Lists.newArrayList();
+
+        // common files come first, every other shard requires them
+        final List<Piece> common = groups.remove(null);
+        if (common != null) {
+            packGroup(common);
+        }
+        for (List<Piece> pieces : groups.values()) {
+            packGroup(pieces);
+        }
+        groups.clear();
+
+        final List<byte[]> contents = Lists.newArrayListWithCapacity(shards.size());
+        for (Shard shard : shards) {
+            contents.add(shard.content.toByteArray());
+        }
+        return contents;
+    }
+
+    private void packGroup(List<Piece> pieces) {
+        long size = 0;
+        for (Piece piece : pieces) {
+            size += piece.size;
+        }
+        Shard current = shards.isEmpty() ? null : shards.get(shards.size() - 1);
+        if (current == null || current.size > 0 && current.size + size > budget) {
+            current = newShard();
+        }
+        for (Piece piece : pieces) {
+            // only packages exceeding the budget on their own are split
+            if (current.size > 0 && current.size + piece.size > budget) {
+                current = newShard();
+            }
+            current.add(piece);
+        }
+    }
+
+    private Shard newShard() {
+        final Shard shard = new Shard();
+        shards.add(shard);
+        return shard;
+    }
+
+    /**
+     * Renders the manifest of the packed shards as JSON, e.g. {"version":1,"shards":[{"file":"stubs-0.js",
+     * "size":1024,"requires":[]}],"commands":{"com.acme.Cmd":0},"packages":{"com":0,"com.acme":0}}.
+     * A shard requires the shards containing the common files and the packages of its commands.
+     *
+     * @param fileNames the file names of all shards, in the order returned by {@link #pack()}
+     * @return the JSON document
+     */
+    String toJson(List<String> fileNames) {
+        Preconditions.checkState(shards != null, "not packed yet");
+        Preconditions.checkArgument(fileNames.size() == shards.size(), "expected %s file names", shards.size());
+
+        final SortedMap<String, Integer> commands = Maps.newTreeMap();
+        final SortedMap<String, Integer> packages = Maps.newTreeMap();
+        final SortedSet<Integer> common = Sets.newTreeSet();
+        for (int i = 0; i < shards.size(); i++) {
+            for (Piece piece : shards.get(i).pieces) {
+                if (ClassMap.COMMAND.equals(piece.type)) {
+                    commands.put(piece.name, Integer.valueOf(i));
+                } else if (ClassMap.PACKAGE.equals(piece.type)) {
+                    // split packages are required from their first shard on
+                    if (!packages.containsKey(piece.name)) {
+                        packages.put(piece.name, Integer.valueOf(i));
+                    }
+                } else {
+                    common.add(Integer.valueOf(i));
+                }
+            }
+        }
+
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{\"version\":").append(VERSION).append(",\"shards\":[");
+        for (int i = 0; i < shards.size(); i++) {
+            final Shard shard = shards.get(i);
+            final SortedSet<Integer> requires = Sets.newTreeSet(common);
+            for (Piece piece : shard.pieces) {
+                if (piece.type != null) {
+                    addPackages(piece, packages, requires);
+                }
+            }
+            requires.remove(Integer.valueOf(i));
+
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"file\":").append(Json.quote(fileNames.get(i)));
+            builder.append(",\"size\":").append(shard.size);
+            builder.append(",\"requires\":[");
+            boolean first = true;
+            for (Integer required : requires) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                builder.append(required);
+            }
+            builder.append("]}");
+        }
+        builder.append("],\"commands\":");
+        appendIndices(builder, commands);
+        builder.append(",\"packages\":");
+        appendIndices(builder, packages);
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private static void addPackages(Piece piece, Map<String, Integer> packages, SortedSet<Integer> requires) {
+        final String name = piece.name;
+        for (int index = name.indexOf('.'); index != -1; index = name.indexOf('.', index + 1)) {
+            final Integer shard = packages.get(name.substring(0, index));
+            if (shard != null) {
+                requires.add(shard);
+            }
+        }
+        if (ClassMap.PACKAGE.equals(piece.type)) {
+            final Integer shard = packages.get(name);
+            if (shard != null) {
+                requires.add(shard);
+            }
+        }
+    }
+
+    private static void appendIndices(StringBuilder builder, SortedMap<String, Integer> indices) {
+        builder.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : indices.entrySet()) {
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            builder.append(Json.quote(entry.getKey())).append(':').append(entry.getValue());
+        }
+        builder.append('}');
+    }
+
+    /**
+     * One generated file.
+     */
+    private static final class Piece {
+
+        private final String name;
+
+        private final String type;
+
+        // dropped once written into its shard
+        private byte[] content;
+
+        private final long size;
+
+        Piece(String name, String type, byte[] content) {
+            this.name = name;
+            this.type = type;
+            this.content = content;
+            // files are separated by a newline like in the bundle
+            this.size = content.length + (content.length > 0 && content[content.length - 1] != '\n' ? 1 : 0);
+        }
+
+    }
+
+    /**
+     * The files of one output bundle.
+     */
+    private static final class Shard {
+
+        private final List<Piece> pieces = Lists.newArrayList();
+
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private long size;
+
+        void add(Piece piece) {
+            pieces.add(piece);
+            content.write(piece.content, 0, piece.content.length);
+            if (piece.size > piece.content.length) {
+                content.write('\n');
+            }
+            piece.content = null;
+            size += piece.size;
+        }
+
+    }
+
+}
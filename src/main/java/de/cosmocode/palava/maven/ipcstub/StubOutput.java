@@ -0,0 +1,216 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * Writes generated files only if their content changed and removes files which
+ * were generated by a previous run but not by the current one. The digests of all
+ * generated files are kept in a manifest file.
+ */
+final class StubOutput {
+
+    private static final char SEPARATOR = '\t';
+
+    private final File manifest;
+
+    // absolute path to digest of the previous run
+    private final Map<String, String> previous = Maps.newHashMap();
+
+    // absolute path to digest of the current run
+    private final Map<String, String> current = Maps.newLinkedHashMap();
+
+    private int written;
+
+    private int unchanged;
+
+    private int deleted;
+
+    private StubOutput(File manifest) {
+        this.manifest = Preconditions.checkNotNull(manifest, "Manifest");
+    }
+
+    /**
+     * Writes the given content if the file does not exist yet or has a different content.
+     *
+     * @param file the target file
+     * @param content the complete file content
+     * @return true if the file was written, false if it was up to date
+     * @throws IOException if writing failed
+     */
+    boolean write(File file, byte[] content) throws IOException {
+        final String path = file.getAbsolutePath();
+        final String digest = DigestUtils.md5Hex(content);
+        current.put(path, digest);
+
+        if (file.isFile() && file.length() == content.length) {
+            final String known = previous.get(path);
+            if (digest.equals(known) || digest.equals(DigestUtils.md5Hex(FileUtils.readFileToByteArray(file)))) {
+                unchanged++;
+                return false;
+            }
+        }
+
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("cannot create directory " + parent);
+        }
+        final FileChannel channel = new FileOutputStream(file).getChannel();
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            channel.close();
+        }
+        written++;
+        return true;
+    }
+
+    /**
+     * Keeps a file of the previous run without generating it again.
+     *
+     * @param file the target file
+     * @return true if the file is kept, false if it has to be generated
+     */
+    boolean keep(File file) {
+        if (!isKnown(file)) {
+            return false;
+        }
+        final String path = file.getAbsolutePath();
+        current.put(path, previous.get(path));
+        unchanged++;
+        return true;
+    }
+
+    /**
+     * Checks whether the given file was generated by the previous run and still exists.
+     *
+     * @param file the target file
+     * @return true if the file can be kept, false otherwise
+     */
+    boolean isKnown(File file) {
+        return previous.containsKey(file.getAbsolutePath()) && file.isFile();
+    }
+
+    /**
+     * Deletes all files of the previous run which were not generated again and
+     * stores the manifest of this run.
+     *
+     * @param log the maven logger
+     * @throws IOException if storing the manifest failed
+     */
+    void finish(Log log) throws IOException {
+        for (String path : previous.keySet()) {
+            if (current.containsKey(path)) {
+                continue;
+            }
+            final File stale = new File(path);
+            if (stale.isFile()) {
+                log.info("Deleting stale " + stale + "...");
+                if (stale.delete()) {
+                    deleted++;
+                } else {
+                    log.warn("cannot delete stale file " + stale);
+                }
+            }
+        }
+
+        final File parent = manifest.getParentFile();
+        if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("cannot create directory " + parent);
+        }
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifest), "UTF-8"));
+        try {
+            for (Map.Entry<String, String> entry : current.entrySet()) {
+                writer.write(entry.getValue());
+                writer.write(SEPARATOR);
+                writer.write(entry.getKey());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    int getWritten() {
+        return written;
+    }
+
+    int getUnchanged() {
+        return unchanged;
+    }
+
+    int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Opens the output of a generator, reading the manifest of the previous run if present.
+     *
+     * @param manifest the manifest file
+     * @return a new output
+     */
+    static StubOutput open(File manifest) {
+        final StubOutput output = new StubOutput(manifest);
+        if (!manifest.isFile()) {
+            return output;
+        }
+
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(manifest), "UTF-8");
+            final BufferedReader lines = new BufferedReader(reader);
+            String line;
+            while ((line = lines.readLine()) != null) {
+                final int index = line.indexOf(SEPARATOR);
+                if (index > 0) {
+                    output.previous.put(line.substring(index + 1), line.substring(0, index));
+                }
+            }
+        } catch (IOException e) {
+            // without a manifest every file will be compared by content
+            output.previous.clear();
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return output;
+    }
+
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.velocity.Template;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A Velocity engine shared by all generators of one execution together with a cache
+ * of parsed templates. Every template of a scheme is parsed once and reused for all
+ * files and generators. Safe to use from concurrently running generators.
+ * <p>
+ * Engines are kept for later executions within the same JVM, e.g. other modules of a
+ * reactor build or the rounds of the watch goal. An engine is leased by one execution
+ * at a time and only offered to others once it was {@link #release() released}, so
+ * concurrently built modules never share an engine or its log. An idle engine is only
+ * reused if every template it loaded, including parsed and included ones, still has the
+ * same content on the classpath of the new execution. Every plugin version has its own
+ * classloader and therefore its own engines.
+ * </p>
+ */
+final class TemplateCache {
+
+    private static final int SHARED_SIZE = 4;
+
+    // idle engines of previous executions, most recently released first
+    private static final List<TemplateCache> SHARED = Lists.newLinkedList();
+
+    private static final String DIGESTS = TemplateCache.class.getName() + ".digests";
+
+    private final VelocityEngine engine;
+
+    private final MavenLogChute chute;
+
+    // resource path, which includes the scheme, to parsed template
+    private final ConcurrentMap<String, Template> templates = Maps.newConcurrentMap();
+
+    // resource name to content digest of every loaded resource
+    private final ConcurrentMap<String, String> digests = Maps.newConcurrentMap();
+
+    /**
+     * Creates and initializes the underlying engine.
+     *
+     * @param log the maven logger
+     * @throws MojoExecutionException if the engine could not be initialized
+     */
+    TemplateCache(Log log) throws MojoExecutionException {
+        chute = new MavenLogChute(log);
+        engine = new VelocityEngine();
+        engine.setProperty(VelocityEngine.RUNTIME_LOG_LOGSYSTEM, chute);
+        engine.setProperty(VelocityEngine.RESOURCE_LOADER, "class");
+        engine.setProperty("class.resource.loader.class", DigestingResourceLoader.class.getName());
+        // schemes have to be in UTF-8
+        engine.setProperty(VelocityEngine.INPUT_ENCODING, "UTF-8");
+        engine.setProperty("class.resource.loader.cache", "true");
+        // changes are detected by comparing digests before an engine is reused
+        engine.setProperty("class.resource.loader.modificationCheckInterval", "-1");
+        engine.setApplicationAttribute(DIGESTS, digests);
+
+        try {
+            engine.init();
+        /* CHECKSTYLE:OFF */
+        } catch (Exception e) {
+        /* CHECKSTYLE:ON */
+            throw new MojoExecutionException("cannot initialize velocity engine", e);
+        }
+    }
+
+    /**
+     * Leases an engine to a new execution, reusing an idle one of a previous execution
+     * if all of its templates are unchanged. The engine has to be {@link #release() released}
+     * once the execution is done.
+     *
+     * @param log the maven logger of the new execution
+     * @return an engine used by no other execution
+     * @throws MojoExecutionException if a new engine could not be initialized
+     */
+    static TemplateCache acquire(Log log) throws MojoExecutionException {
+        synchronized (SHARED) {
+            final Iterator<TemplateCache> iterator = SHARED.iterator();
+            while (iterator.hasNext()) {
+                final TemplateCache cache = iterator.next();
+                if (cache.isCurrent()) {
+                    iterator.remove();
+                    cache.chute.setLog(log);
+                    log.debug("Reusing " + cache.templates.size() + " parsed templates");
+                    return cache;
+                }
+            }
+        }
+        return new TemplateCache(log);
+    }
+
+    /**
+     * Passes the engine's messages of the current thread to the given log, used by
+     * generators running concurrently. Has to be undone by {@link #detachLog()}.
+     *
+     * @param currentLog the log of the generator the current thread renders for
+     */
+    void attachLog(Log currentLog) {
+        chute.attach(currentLog);
+    }
+
+    /**
+     * Passes the engine's messages of the current thread to the execution's log again.
+     */
+    void detachLog() {
+        chute.detach();
+    }
+
+    /**
+     * Offers this engine to later executions, it must not be used afterwards.
+     */
+    void release() {
+        synchronized (SHARED) {
+            SHARED.add(0, this);
+            if (SHARED.size() > SHARED_SIZE) {
+                SHARED.remove(SHARED.size() - 1);
+            }
+        }
+    }
+
+    // an idle engine without any loaded template has nothing outdated and is reused as well
+    private boolean isCurrent() {
+        for (Map.Entry<String, String> entry : digests.entrySet()) {
+            final byte[] content;
+            try {
+                content = read(entry.getKey());
+            } catch (IOException e) {
+                return false;
+            }
+            if (content == null || !entry.getValue().equals(DigestUtils.md5Hex(content))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Provides the parsed template of a scheme.
+     *
+     * @param scheme the scheme, e.g. "php"
+     * @param name the template name without extension, e.g. "main"
+     * @return the parsed template
+     * @throws ResourceNotFoundException if the scheme does not contain the template
+     * @throws Exception if the template could not be parsed
+     */
+    /* CHECKSTYLE:OFF */
+    Template getTemplate(String scheme, String name) throws Exception {
+    /* CHECKSTYLE:ON */
+        final String path = getResourcePath(scheme, name);
+        final Template cached = templates.get(path);
+        if (cached != null) {
+            return cached;
+        }
+        final Template template = engine.getTemplate(path);
+        final Template existing = templates.putIfAbsent(path, template);
+        return existing == null ? template : existing;
+    }
+
+    static String getResourcePath(String scheme, String resource) {
+        return "/ipcstub/" + scheme + "/" + resource + ".vm";
+    }
+
+    /**
+     * Reads a resource like the {@link ClasspathResourceLoader}, the context classloader
+     * is asked first.
+     *
+     * @param name the resource name
+     * @return the content or null if not found
+     * @throws IOException if reading failed
+     */
+    static byte[] read(String name) throws IOException {
+        final String path = name.startsWith("/") ? name.substring(1) : name;
+        final ClassLoader context = Thread.currentThread().getContextClassLoader();
+        InputStream stream = context == null ? null : context.getResourceAsStream(path);
+        if (stream == null) {
+            stream = TemplateCache.class.getClassLoader().getResourceAsStream(path);
+        }
+        if (stream == null) {
+            return null;
+        }
+        try {
+            return IOUtils.toByteArray(stream);
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Loads resources from the classpath and records the digest of their content.
+     */
+    public static final class DigestingResourceLoader extends ClasspathResourceLoader {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public InputStream getResourceStream(String name) throws ResourceNotFoundException {
+            final byte[] content;
+            try {
+                content = read(name);
+            } catch (IOException e) {
+                throw new ResourceNotFoundException("cannot read " + name + ": " + e.getMessage());
+            }
+            if (content == null) {
+                throw new ResourceNotFoundException("cannot find " + name);
+            }
+            final Map<String, String> recorded = (Map<String, String>) rsvc.getApplicationAttribute(DIGESTS);
+            recorded.put(name, DigestUtils.md5Hex(content));
+            return new ByteArrayInputStream(content);
+        }
+
+    }
+
+}
@@ -0,0 +1,358 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/* CHECKSTYLE:OFF */
+/**
+ * Generates stub files for all found IpcCommands in the classpath and regenerates
+ * them whenever classes of the project change, until the build is interrupted.
+ * Only changed commands are inspected again and only the files of affected
+ * commands and packages are rendered again. The streaming mode is not supported.
+ * 
+ * @description Generates stub files and regenerates them on class changes.
+ * @goal watch-ipcstub
+ * @requiresDependencyResolution runtime
+ */
+public class WatchModule extends GeneratorModule {
+/* CHECKSTYLE:ON */
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final Log log = getLog();
+
+    /**
+     * Milliseconds between two checks for changed classes.
+     * 
+     * @parameter expression="${ipcstub.watchInterval}" default-value="500"
+     */
+    private int watchInterval;
+
+    // command name to snapshot, kept between generations
+    private final Map<String, InspectedCommand> inspected = Maps.newHashMap();
+
+    // command name to its entry in the index of the output directory
+    private Map<String, String> indexed = Collections.emptyMap();
+
+    // changed classes of failed regenerations, retried with the next change
+    private final Set<String> pending = Sets.newHashSet();
+
+    /**
+     * Generates all stubs once and watches the output directory afterwards.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if ("reflection".equals(getDiscovery())) {
+            throw new MojoFailureException("watching requires bytecode or index discovery");
+        }
+        if (watchInterval <= 0) {
+            throw new MojoFailureException("watchInterval must be positive");
+        }
+
+        final PackageMatcher matcher = prepare();
+        final File classes = new File(getProject().getBuild().getOutputDirectory());
+
+        Map<String, String> stamps = stamp(classes);
+        changedEntries(classes);
+        regenerate(matcher, null);
+
+        log.info("Watching " + classes + " for changes, interrupt the build to stop...");
+        while (true) {
+            final Map<String, String> current = settle(classes, stamps);
+            if (current == null) {
+                return;
+            }
+            final Set<String> changed = changedClasses(stamps, current);
+            if (!Objects.equal(stamps.get(CommandIndex.LOCATION), current.get(CommandIndex.LOCATION))) {
+                // e.g. a description written by incremental annotation processing
+                changed.addAll(changedEntries(classes));
+            }
+            stamps = current;
+            if (changed.isEmpty()) {
+                continue;
+            }
+
+            log.info(changed.size() + " classes changed; regenerating stubs...");
+            pending.addAll(changed);
+            final long start = System.nanoTime();
+            try {
+                regenerate(matcher, Sets.newHashSet(pending));
+                pending.clear();
+                log.info("Regenerated stubs in " + (System.nanoTime() - start) / 1000000L + "ms");
+            } catch (MojoExecutionException e) {
+                // e.g. caught in the middle of a compilation, the next change will fix it
+                log.error("Regeneration failed, waiting for further changes", e);
+            } catch (MojoFailureException e) {
+                // e.g. an invalid annotation saved while editing
+                log.error("Regeneration failed, waiting for further changes", e);
+            }
+        }
+    }
+
+    /**
+     * Waits until the classes differ from the given stamps and stop changing,
+     * compilers write many files one after another.
+     *
+     * @param classes the output directory
+     * @param stamps the last known stamps
+     * @return the new stamps or null if interrupted
+     */
+    private Map<String, String> settle(File classes, Map<String, String> stamps) {
+        Map<String, String> previous = stamps;
+        while (true) {
+            try {
+                Thread.sleep(watchInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            final Map<String, String> current = stamp(classes);
+            if (current.equals(previous) && !current.equals(stamps)) {
+                return current;
+            } else if (current.equals(stamps)) {
+                previous = stamps;
+            } else {
+                previous = current;
+            }
+        }
+    }
+
+    private void regenerate(PackageMatcher matcher, Set<String> changed) 
+        throws MojoExecutionException, MojoFailureException {
+        
+        final ExecutionReport report = startReport();
+
+        final long start = System.nanoTime();
+        final List<File> locations = resolveClasspath();
+        report.phase("classpath", System.nanoTime() - start);
+
+        if ("index".equals(getDiscovery())) {
+            // descriptors are built from the index, no command is loaded
+            render(inspect(locations, matcher, changed), locations, getStateDirectory());
+            return;
+        }
+
+        // changed classes change the fingerprint and therefore get a new loader,
+        // which provides templates and emitters as well
+        final ScanClassLoader classloader = ScanClassLoader.acquire(locations, getClass().getClassLoader(), 
+            getClassLoaderCacheSize());
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classloader);
+        try {
+            // the kept snapshots hold no classes, so only cached loaders outlive a round
+            generate(inspect(locations, matcher, changed), getTargetDirectory(), getStateDirectory());
+        } finally {
+            thread.setContextClassLoader(previous);
+            classloader.release();
+        }
+    }
+
+    private List<GeneratorRun> inspect(List<File> locations, PackageMatcher matcher, Set<String> changed) 
+        throws MojoExecutionException, MojoFailureException {
+        
+        final ExecutionReport report = getReport();
+
+        long start = System.nanoTime();
+        final FoundCommands found = findCommands(locations, matcher);
+        final SortedSet<String> names = found.getNames();
+        report.phase("scanning", System.nanoTime() - start);
+
+        // snapshots of unchanged commands are reused
+        start = System.nanoTime();
+        final Set<String> affectedCommands = Sets.newHashSet(inspected.keySet());
+        affectedCommands.removeAll(names);
+        inspected.keySet().retainAll(names);
+        if (changed != null) {
+            inspected.keySet().removeAll(changed);
+        }
+
+        final List<String> missing = Lists.newArrayList();
+        for (String name : names) {
+            if (!inspected.containsKey(name)) {
+                missing.add(name);
+            }
+        }
+        for (String name : missing) {
+            try {
+                inspected.put(name, found.inspect(name));
+            } catch (RuntimeException e) {
+                // keeps watching, the next change may fix the command
+                throw new MojoFailureException("cannot inspect " + name + ": " + e, e);
+            }
+        }
+        affectedCommands.addAll(missing);
+        report.phase("inspection", System.nanoTime() - start);
+
+        // packages list their commands, so they are affected as well
+        final Set<String> affected;
+        if (changed == null) {
+            affected = null;
+        } else {
+            affected = Sets.newHashSet(affectedCommands);
+            for (String name : affectedCommands) {
+                for (int index = name.indexOf('.'); index != -1; index = name.indexOf('.', index + 1)) {
+                    affected.add(name.substring(0, index));
+                }
+            }
+            log.debug("Affected commands and packages: " + affected);
+        }
+
+        start = System.nanoTime();
+        final List<Generator> generators = getGenerators();
+        final List<Set<InspectedCommand>> filtered = Lists.newArrayList();
+        for (int i = 0; i < generators.size(); i++) {
+            filtered.add(Sets.<InspectedCommand>newLinkedHashSet());
+        }
+        for (String name : names) {
+            final BitSet matches = matcher.match(name);
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                filtered.get(i).add(inspected.get(name));
+            }
+        }
+        report.phase("filtering", System.nanoTime() - start);
+
+        final List<GeneratorRun> runs = Lists.newArrayList();
+        for (int i = 0; i < generators.size(); i++) {
+            final Generator generator = generators.get(i);
+            final Set<InspectedCommand> commands = filtered.get(i);
+            runs.add(new GeneratorRun() {
+                
+                @Override
+                public void generate(Log currentLog, File directory, GeneratorContext context) 
+                    throws MojoExecutionException, MojoFailureException {
+                    generator.generate(currentLog, commands, directory, context, affected);
+                }
+                
+            });
+        }
+        return runs;
+    }
+
+    /**
+     * Collects size and modification date of all class files and the command index.
+     *
+     * @param classes the output directory
+     * @return the stamps by relative path
+     */
+    private static Map<String, String> stamp(File classes) {
+        final Map<String, String> stamps = Maps.newHashMap();
+        stamp(classes, "", stamps);
+        return stamps;
+    }
+
+    private static void stamp(File directory, String prefix, Map<String, String> stamps) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                stamp(file, prefix + file.getName() + "/", stamps);
+            } else if (file.getName().endsWith(CLASS_SUFFIX)
+                || CommandIndex.LOCATION.equals(prefix + file.getName())) {
+                stamps.put(prefix + file.getName(), file.length() + "-" + file.lastModified());
+            }
+        }
+    }
+
+    /**
+     * Computes the binary names of all added, changed and removed classes.
+     *
+     * @param before the stamps of the last generation
+     * @param after the current stamps
+     * @return the names of all changed classes
+     */
+    private static Set<String> changedClasses(Map<String, String> before, Map<String, String> after) {
+        final Set<String> paths = Sets.newHashSet();
+        for (Map.Entry<String, String> entry : after.entrySet()) {
+            if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                paths.add(entry.getKey());
+            }
+        }
+        for (String path : before.keySet()) {
+            if (!after.containsKey(path)) {
+                paths.add(path);
+            }
+        }
+
+        final Set<String> names = Sets.newHashSet();
+        for (String path : paths) {
+            if (!path.endsWith(CLASS_SUFFIX)) {
+                continue;
+            }
+            names.add(path.substring(0, path.length() - CLASS_SUFFIX.length()).replace('/', '.'));
+        }
+        return names;
+    }
+
+    /**
+     * Computes the names of all commands whose entries in the index of the output directory
+     * were added, changed or removed since the last call.
+     *
+     * @param classes the output directory
+     * @return the names of all changed commands
+     */
+    private Set<String> changedEntries(File classes) {
+        final Map<String, String> current = Maps.newHashMap();
+        try {
+            for (CommandIndex.Entry entry : CommandIndex.read(classes).values()) {
+                final StringWriter writer = new StringWriter();
+                CommandIndex.write(Collections.singleton(entry), writer);
+                current.put(entry.getName(), writer.toString());
+            }
+        } catch (IOException e) {
+            log.warn("cannot read command index of " + classes, e);
+            return Collections.emptySet();
+        }
+
+        final Set<String> names = Sets.newHashSet();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (!entry.getValue().equals(indexed.get(entry.getKey()))) {
+                names.add(entry.getKey());
+            }
+        }
+        for (String name : indexed.keySet()) {
+            if (!current.containsKey(name)) {
+                names.add(name);
+            }
+        }
+        indexed = current;
+        return names;
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sending calls of the generated java stubs one by one and as one batch to a stand-in
+ * server with a simulated network latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BatchBenchmark {
+
+    @Param({"2"})
+    private long latency;
+
+    @Param({"50"})
+    private int calls;
+
+    private JavaStubs stubs;
+
+    private StandInServer server;
+
+    private Object client;
+
+    private Object stub;
+
+    private Class<?> requestType;
+
+    @Setup
+    /* CHECKSTYLE:OFF */
+    public void setUp() throws Exception {
+    /* CHECKSTYLE:ON */
+        stubs = JavaStubs.compile();
+        server = new StandInServer(latency);
+        client = stubs.connect(server);
+        stub = stubs.stub(client, JavaStubs.CREATE);
+        requestType = stubs.type(JavaStubs.CREATE + "Stub$Request");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.stop();
+        stubs.close();
+    }
+
+    @Benchmark
+    /* CHECKSTYLE:OFF */
+    public void single() throws Exception {
+    /* CHECKSTYLE:ON */
+        for (int i = 0; i < calls; i++) {
+            JavaStubs.invoke(stub, "call", new Class<?>[] {requestType}, stubs.request(stub, "user" + i));
+        }
+    }
+
+    @Benchmark
+    /* CHECKSTYLE:OFF */
+    public void batched() throws Exception {
+    /* CHECKSTYLE:ON */
+        final Object batch = JavaStubs.invoke(client, "batch", new Class<?>[0]);
+        for (int i = 0; i < calls; i++) {
+            JavaStubs.invoke(stub, "queue", new Class<?>[] {batch.getClass(), requestType}, batch, 
+                stubs.request(stub, "user" + i));
+        }
+        JavaStubs.invoke(batch, "send", new Class<?>[0]);
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.SortedMap;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests that the {@link CommandIndexProcessor} keeps the entries of classes which were not
+ * part of an incremental compilation.
+ */
+public final class CommandIndexProcessorTest {
+
+    private static final String TOP_LEVEL = "ipcstub.index.Top$Level";
+
+    private static final String MEMBER = "ipcstub.index.Outer$Member";
+
+    private File directory;
+
+    private File sources;
+
+    private File classes;
+
+    /**
+     * Creates the working directory.
+     *
+     * @throws IOException if creating failed
+     */
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(ToolProvider.getSystemJavaCompiler() != null);
+        directory = Fixtures.createDirectory("command-index");
+        sources = new File(directory, "sources");
+        classes = new File(directory, "classes");
+        if (!classes.mkdirs()) {
+            throw new IOException("cannot create " + classes);
+        }
+    }
+
+    /**
+     * Removes all files.
+     *
+     * @throws IOException if deleting failed
+     */
+    @After
+    public void tearDown() throws IOException {
+        if (directory != null) {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private File source(String name, String content) throws IOException {
+        final File file = new File(sources, name.replace('.', '/') + ".java");
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+
+    private void compile(List<String> options, File... files) {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final List<String> arguments = Lists.newArrayList("-nowarn", "-d", classes.getPath(), 
+            "-classpath", classes.getPath() + File.pathSeparator + System.getProperty("java.class.path"));
+        arguments.addAll(options);
+        for (File file : files) {
+            arguments.add(file.getPath());
+        }
+        Assert.assertEquals(0, compiler.run(null, null, null, arguments.toArray(new String[0])));
+    }
+
+    /**
+     * Tests that the entries of a top level class with a '$' in its name and of a member class
+     * survive the compilation of another class.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void incremental() throws Exception {
+    /* CHECKSTYLE:ON */
+        compile(ImmutableList.of("-proc:none"), 
+            source(TOP_LEVEL, "package ipcstub.index; public class Top$Level { }"),
+            source("ipcstub.index.Outer", 
+                "package ipcstub.index; public class Outer { public static class Member { } }"));
+
+        // as written by a previous compilation of both classes
+        final File index = new File(classes, CommandIndex.LOCATION);
+        final Writer writer = new OutputStreamWriter(FileUtils.openOutputStream(index), "UTF-8");
+        try {
+            CommandIndex.write(ImmutableList.of(
+                new CommandIndex.Entry(MEMBER, "ipcstub.index.Outer.Member", "", false),
+                new CommandIndex.Entry(TOP_LEVEL, TOP_LEVEL, "", false)), writer);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+
+        compile(ImmutableList.of("-processor", CommandIndexProcessor.class.getName()), 
+            source("ipcstub.index.Other", "package ipcstub.index; public class Other { }"));
+
+        final SortedMap<String, CommandIndex.Entry> entries = CommandIndex.read(classes);
+        Assert.assertEquals(ImmutableList.of(MEMBER, TOP_LEVEL), ImmutableList.copyOf(entries.keySet()));
+        Assert.assertEquals("ipcstub.index.Outer.Member", entries.get(MEMBER).getCanonicalName());
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the binary form of {@link CommandManifest}.
+ */
+public final class CommandManifestTest {
+
+    private static final String COMMAND = Corpus.ROOT + ".users.Update";
+
+    private static byte[] toBinary(String description) throws IOException, MojoExecutionException {
+        final CommandIndex.Entry entry = new CommandIndex.Entry(COMMAND, COMMAND, description, false);
+        final CommandManifest manifest = new CommandManifest();
+        for (GenPackage pkg : GenPackage.getFirstPackages(
+            Collections.singleton(InspectedCommand.inspectIndexed(entry)), null)) {
+            manifest.add(pkg);
+        }
+        return manifest.toBinary();
+    }
+
+    private static String repeat(char c, int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /**
+     * Tests that the longest string a u2 length can describe is written.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void longest() throws Exception {
+    /* CHECKSTYLE:ON */
+        Assert.assertTrue(toBinary(repeat('a', 0xFFFF)).length > 0xFFFF);
+    }
+
+    /**
+     * Tests that a longer string fails naming its command, the limit counts utf-8 bytes.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void tooLong() throws Exception {
+    /* CHECKSTYLE:ON */
+        try {
+            toBinary(repeat('\u00e4', 0x8000));
+            Assert.fail("wrote a string of 65536 bytes");
+        } catch (MojoExecutionException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(COMMAND));
+        }
+    }
+
+}
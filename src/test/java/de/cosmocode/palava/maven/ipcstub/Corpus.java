@@ -0,0 +1,247 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Synthetic command corpora for tests and benchmarks. A corpus is described by its
+ * size, the depth of its package hierarchy and the annotation density, the number of
+ * params per command; returns, throws and cache hints follow the density. The same
+ * arguments always create the same corpus.
+ */
+final class Corpus {
+
+    static final String ROOT = "com.example.api";
+
+    private static final String[] TYPES = {"string", "int", "long", "boolean", "list", "map", "number", "any"};
+
+    private final int size;
+
+    private final int depth;
+
+    private final int density;
+
+    private final List<String> names;
+
+    Corpus(int size, int depth, int density) {
+        this.size = size;
+        this.depth = depth;
+        this.density = density;
+        this.names = createNames();
+    }
+
+    private List<String> createNames() {
+        // about ten commands per package, spread evenly over the hierarchy
+        final int packages = Math.max(1, size / 10);
+        final int width = Math.max(2, (int) Math.ceil(Math.pow(packages, 1.0 / depth)));
+        final List<String> created = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            final int pkg = i % packages;
+            final StringBuilder builder = new StringBuilder(ROOT);
+            int rest = pkg;
+            for (int level = 0; level < depth; level++) {
+                builder.append(".p").append(rest % width);
+                rest /= width;
+            }
+            created.add(builder.append(".Command").append(i).toString());
+        }
+        Collections.sort(created);
+        return Collections.unmodifiableList(created);
+    }
+
+    /**
+     * The binary names of all commands, ordered by name.
+     *
+     * @return all command names
+     */
+    List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * The binary names of all commands in a random but stable order.
+     *
+     * @param seed the seed of the order
+     * @return all command names
+     */
+    List<String> getShuffledNames(long seed) {
+        final List<String> shuffled = Lists.newArrayList(names);
+        Collections.shuffle(shuffled, new Random(seed));
+        return shuffled;
+    }
+
+    /**
+     * Describes a command like the index does.
+     *
+     * @param name the binary name of the command
+     * @return a new entry
+     */
+    CommandIndex.Entry entry(String name) {
+        final int number = name.hashCode() & 0x7FFFFFFF;
+        final CommandIndex.Entry entry = new CommandIndex.Entry(name, name, "Synthetic command " + name + ".",
+            number % 17 == 0);
+        for (int i = 0; i < density; i++) {
+            entry.addParam(new CommandIndex.ParamEntry("param" + i, i % 2 == 0 ? "The param " + i : "",
+                TYPES[(number + i) % TYPES.length], i % 3 == 2, i % 3 == 2 ? String.valueOf(i) : ""));
+        }
+        for (int i = 0; i < (density + 1) / 2; i++) {
+            entry.addReturn(new CommandIndex.ReturnEntry("value" + i, "The value " + i));
+        }
+        for (int i = 0; i < density / 3; i++) {
+            entry.addThrow(new CommandIndex.ThrowEntry("java.lang.IllegalStateException", "if invalid"));
+        }
+        if (density > 0 && number % 4 == 0) {
+            final CommandIndex.MetaEntry hint = new CommandIndex.MetaEntry(CacheHint.class.getName(),
+                CacheHint.class.getSimpleName());
+            hint.addAttribute("ttl", "long", String.valueOf(1 + number % 300));
+            hint.addAttribute("sessionDependent", "boolean", String.valueOf(number % 3 == 0));
+            hint.addAttribute("maxEntries", "int", "100");
+            entry.addMeta(hint);
+        }
+        return entry;
+    }
+
+    /**
+     * Describes all commands like the index does.
+     *
+     * @return all entries by binary name
+     */
+    SortedMap<String, CommandIndex.Entry> entries() {
+        final SortedMap<String, CommandIndex.Entry> entries = Maps.newTreeMap();
+        for (String name : names) {
+            entries.put(name, entry(name));
+        }
+        return entries;
+    }
+
+    /**
+     * Inspects all commands in the given order.
+     *
+     * @param order the binary names of the commands to inspect
+     * @return the inspected commands in the given order
+     */
+    Set<InspectedCommand> inspect(List<String> order) {
+        final Set<InspectedCommand> commands = Sets.newLinkedHashSet();
+        for (String name : order) {
+            commands.add(InspectedCommand.inspectIndexed(entry(name)));
+        }
+        return commands;
+    }
+
+    /**
+     * Inspects all commands ordered by name, like the discovery does.
+     *
+     * @return the inspected commands
+     */
+    Set<InspectedCommand> inspect() {
+        return inspect(names);
+    }
+
+    /**
+     * Writes the index of all commands into META-INF/ipcstub/commands.index of the given directory.
+     *
+     * @param directory a classpath directory
+     * @throws IOException if writing failed
+     */
+    void writeIndex(File directory) throws IOException {
+        final File file = new File(directory, CommandIndex.LOCATION);
+        if (!file.getParentFile().mkdirs() && !file.getParentFile().isDirectory()) {
+            throw new IOException("cannot create " + file.getParentFile());
+        }
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            CommandIndex.write(entries().values(), writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes a class file for every command and a helper class for every fifth of them into
+     * the given directory. The classes only consist of their header, which is all the
+     * discovery reads.
+     *
+     * @param directory a classpath directory
+     * @throws IOException if writing failed
+     */
+    void writeClasses(File directory) throws IOException {
+        final String command = "de/cosmocode/palava/ipc/IpcCommand";
+        for (int i = 0; i < names.size(); i++) {
+            final String name = names.get(i).replace('.', '/');
+            writeClass(directory, name, "java/lang/Object", command);
+            if (i % 5 == 0) {
+                // unrelated classes are part of every real classpath
+                writeClass(directory, name + "$Helper", "java/lang/Object", "java/io/Serializable");
+            }
+        }
+    }
+
+    private static void writeClass(File directory, String name, String superName, String iface) throws IOException {
+        final File file = new File(directory, name + ".class");
+        if (!file.getParentFile().mkdirs() && !file.getParentFile().isDirectory()) {
+            throw new IOException("cannot create " + file.getParentFile());
+        }
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0xCAFEBABE);
+            // java 6
+            out.writeShort(0);
+            out.writeShort(50);
+            out.writeShort(7);
+            out.writeByte(1);
+            out.writeUTF(name);
+            out.writeByte(7);
+            out.writeShort(1);
+            out.writeByte(1);
+            out.writeUTF(superName);
+            out.writeByte(7);
+            out.writeShort(3);
+            out.writeByte(1);
+            out.writeUTF(iface);
+            out.writeByte(7);
+            out.writeShort(5);
+            // public super
+            out.writeShort(0x0021);
+            out.writeShort(2);
+            out.writeShort(4);
+            out.writeShort(1);
+            out.writeShort(6);
+            // no fields, methods and attributes
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+        } finally {
+            out.close();
+        }
+    }
+
+}
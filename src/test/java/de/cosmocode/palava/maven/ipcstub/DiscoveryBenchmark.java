@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Discovery of the commands of a classpath directory, by scanning class files and by
+ * reading the index written by the {@link CommandIndexProcessor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DiscoveryBenchmark {
+
+    @Param({"1000", "10000"})
+    private int size;
+
+    private File classes;
+
+    private File indexed;
+
+    private PackageMatcher matcher;
+
+    @Setup
+    /* CHECKSTYLE:OFF */
+    public void setUp() throws Exception {
+    /* CHECKSTYLE:ON */
+        final Corpus corpus = new Corpus(size, 3, 4);
+        classes = Fixtures.createDirectory("classes");
+        corpus.writeClasses(classes);
+        indexed = Fixtures.createDirectory("indexed");
+        corpus.writeIndex(indexed);
+        matcher = PackageMatcher.compile(Collections.singletonList(Fixtures.generator("java", "java", "velocity")));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(classes);
+        FileUtils.deleteDirectory(indexed);
+    }
+
+    @Benchmark
+    public SortedSet<String> scan() throws IOException {
+        final BytecodeScanner scanner = new BytecodeScanner(Fixtures.QUIET);
+        scanner.addAll(BytecodeScanner.read(classes, Fixtures.QUIET));
+        return scanner.findCommands(matcher);
+    }
+
+    @Benchmark
+    public SortedMap<String, CommandIndex.Entry> index() throws IOException {
+        return CommandIndex.read(indexed);
+    }
+
+}
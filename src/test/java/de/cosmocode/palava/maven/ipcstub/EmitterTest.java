@@ -0,0 +1,129 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how generators choose between the velocity templates and an {@link Emitter}.
+ */
+public final class EmitterTest {
+
+    private File directory;
+
+    /**
+     * Creates the working directory.
+     *
+     * @throws IOException if creating failed
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Fixtures.createDirectory("emitter");
+    }
+
+    /**
+     * Removes all files.
+     *
+     * @throws IOException if deleting failed
+     */
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private void generate(String scheme, String engine) throws Exception {
+        final Generator generator = Fixtures.generator("test", scheme, engine);
+        final GeneratorContext context = Fixtures.context(new File(directory, ".state"));
+        try {
+            generator.generate(Fixtures.QUIET, new Corpus(30, 2, 1).inspect(), directory, context);
+        } finally {
+            context.getTemplates().release();
+        }
+    }
+
+    /**
+     * Tests that "auto" uses the registered emitter.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void auto() throws Exception {
+    /* CHECKSTYLE:ON */
+        generate(ListingEmitter.SCHEME, "auto");
+
+        final List<?> lines = FileUtils.readLines(new File(directory, ListingEmitter.FILE), "UTF-8");
+        Assert.assertEquals(new Corpus(30, 2, 1).getNames(), lines);
+    }
+
+    /**
+     * Tests that "emitter" fails for schemes without an emitter, like the bundled ones.
+     *
+     * @throws Exception should not happen
+     */
+    @Test(expected = MojoFailureException.class)
+    /* CHECKSTYLE:OFF */
+    public void missing() throws Exception {
+    /* CHECKSTYLE:ON */
+        generate("java", "emitter");
+    }
+
+    /**
+     * Lists the names of all commands in one file.
+     */
+    public static final class ListingEmitter implements Emitter {
+
+        static final String SCHEME = "test-listing";
+
+        static final String FILE = "commands.txt";
+
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+
+        @Override
+        public void emit(Generator generator) throws MojoExecutionException {
+            final CodeWriter out = generator.newFile(FILE, null);
+            for (GenPackage pkg : generator.getRootPackages()) {
+                list(pkg, out);
+            }
+            generator.writeFile(out);
+        }
+
+        private void list(GenPackage pkg, CodeWriter out) {
+            for (GenCommand command : pkg.getCommands()) {
+                out.line(pkg.getFullName() + "." + command.getName());
+            }
+            for (GenPackage child : pkg.getPackages()) {
+                list(child, out);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Configures mojos and generators like maven does and provides what they need to run
+ * outside of a build.
+ */
+final class Fixtures {
+
+    static final Log QUIET = new QuietLog();
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int BUFFER_SIZE = 8192;
+
+    private Fixtures() {
+
+    }
+
+    /**
+     * Sets a configuration field like maven does.
+     *
+     * @param target the mojo or generator
+     * @param name the field name
+     * @param value the new value
+     */
+    static void set(Object target, String name, Object value) {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                final Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                continue;
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("no field " + name + " in " + target.getClass());
+    }
+
+    /**
+     * Creates a generator for all commands of a {@link Corpus}.
+     *
+     * @param name the generator name
+     * @param scheme the scheme
+     * @param engine the engine, "velocity" or "emitter"
+     * @return a checked generator
+     * @throws Exception if the configuration is invalid
+     */
+    /* CHECKSTYLE:OFF */
+    static Generator generator(String name, String scheme, String engine) throws Exception {
+    /* CHECKSTYLE:ON */
+        final Generator generator = new Generator();
+        set(generator, "name", name);
+        set(generator, "scheme", scheme);
+        set(generator, "engine", engine);
+        set(generator, "packages", Collections.singletonList(Corpus.ROOT + ".**"));
+        generator.check();
+        return generator;
+    }
+
+    /**
+     * Creates the state of one execution with a leased engine, which has to be
+     * {@link TemplateCache#release() released}.
+     *
+     * @param stateDirectory the state directory
+     * @return a new context
+     * @throws MojoExecutionException if the engine could not be initialized
+     */
+    static GeneratorContext context(File stateDirectory) throws MojoExecutionException {
+        return new GeneratorContext(stateDirectory, TemplateCache.acquire(QUIET), new ExecutionReport(),
+            UTF_8, BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new empty directory.
+     *
+     * @param prefix the name prefix
+     * @return the new directory
+     * @throws IOException if creating failed
+     */
+    static File createDirectory(String prefix) throws IOException {
+        final File file = File.createTempFile(prefix, "");
+        if (!file.delete() || !file.mkdirs()) {
+            throw new IOException("cannot create directory " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Discards all messages.
+     */
+    private static final class QuietLog implements Log {
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public void debug(CharSequence content) {
+            // discarded
+        }
+
+        @Override
+        public void debug(CharSequence content, Throwable error) {
+            // discarded
+        }
+
+        @Override
+        public void debug(Throwable error) {
+            // discarded
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+            // discarded
+        }
+
+        @Override
+        public void info(CharSequence content, Throwable error) {
+            // discarded
+        }
+
+        @Override
+        public void info(Throwable error) {
+            // discarded
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return false;
+        }
+
+        @Override
+        public void warn(CharSequence content) {
+            // discarded
+        }
+
+        @Override
+        public void warn(CharSequence content, Throwable error) {
+            // discarded
+        }
+
+        @Override
+        public void warn(Throwable error) {
+            // discarded
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return false;
+        }
+
+        @Override
+        public void error(CharSequence content) {
+            // discarded
+        }
+
+        @Override
+        public void error(CharSequence content, Throwable error) {
+            // discarded
+        }
+
+        @Override
+        public void error(Throwable error) {
+            // discarded
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests {@link GenPackage#getFirstPackages(Set, GenPackage)} against the {@link LegacyPackages} builder.
+ */
+public final class GenPackageTest {
+
+    private static final List<Integer> SIZES = ImmutableList.of(1, 10, 100, 2000);
+
+    private static final List<Integer> DEPTHS = ImmutableList.of(1, 3, 6);
+
+    private void assertSameTree(Set<InspectedCommand> commands) throws MojoExecutionException {
+        assertSamePackages(LegacyPackages.getFirstPackages(commands, null), GenPackage.getFirstPackages(commands, null));
+    }
+
+    private void assertSamePackages(Set<LegacyPackages> expected, Set<GenPackage> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        final Iterator<GenPackage> iterator = actual.iterator();
+        for (LegacyPackages legacy : expected) {
+            final GenPackage pkg = iterator.next();
+            Assert.assertEquals(legacy.getFullName(), pkg.getFullName());
+            if (legacy.getParent() == null) {
+                Assert.assertNull(pkg.getParent());
+            } else {
+                Assert.assertEquals(legacy.getParent().getFullName(), pkg.getParent().getFullName());
+            }
+
+            final List<InspectedCommand> commands = Lists.newArrayList();
+            for (GenCommand command : pkg.getCommands()) {
+                Assert.assertEquals(pkg.getFullName() + "." + command.getName(), command.getFullName());
+                commands.add(command.getMeta());
+            }
+            Assert.assertEquals(legacy.getFullName(), legacy.getCommands(), commands);
+
+            assertSamePackages(legacy.getPackages(), pkg.getPackages());
+        }
+    }
+
+    /**
+     * Tests commands ordered by name, like the discovery provides them.
+     *
+     * @throws MojoExecutionException should not happen
+     */
+    @Test
+    public void ordered() throws MojoExecutionException {
+        for (int size : SIZES) {
+            for (int depth : DEPTHS) {
+                assertSameTree(new Corpus(size, depth, 0).inspect());
+            }
+        }
+    }
+
+    /**
+     * Tests that packages and commands keep the order of their first occurrence.
+     *
+     * @throws MojoExecutionException should not happen
+     */
+    @Test
+    public void shuffled() throws MojoExecutionException {
+        for (int size : SIZES) {
+            for (int depth : DEPTHS) {
+                final Corpus corpus = new Corpus(size, depth, 0);
+                assertSameTree(corpus.inspect(corpus.getShuffledNames(size * 31 + depth)));
+            }
+        }
+    }
+
+    /**
+     * Tests commands of different roots and at every level of the hierarchy.
+     *
+     * @throws MojoExecutionException should not happen
+     */
+    @Test
+    public void mixedLevels() throws MojoExecutionException {
+        final Corpus corpus = new Corpus(0, 1, 0);
+        final List<String> names = ImmutableList.of(
+            "org.other.First", "com.example.Top", "com.example.api.p0.Deep", "org.other.nested.Second",
+            "com.example.api.Middle", "com.example.Another", "com.other.Third"
+        );
+        assertSameTree(corpus.inspect(names));
+    }
+
+    /**
+     * Tests that only commands below the given parent are added to it.
+     *
+     * @throws MojoExecutionException should not happen
+     */
+    @Test
+    public void withinParent() throws MojoExecutionException {
+        final Set<InspectedCommand> commands = new Corpus(1000, 3, 0).inspect();
+        final String parentName = Corpus.ROOT + ".p1";
+        final LegacyPackages legacyParent = new LegacyPackages(parentName, null);
+        final GenPackage parent = new GenPackage(parentName, null);
+
+        assertSamePackages(LegacyPackages.getFirstPackages(commands, legacyParent), 
+            GenPackage.getFirstPackages(commands, parent));
+        Assert.assertEquals(legacyParent.getCommands().size(), parent.getCommands().size());
+    }
+
+    /**
+     * Tests that empty package names are rejected.
+     *
+     * @throws MojoExecutionException expected
+     */
+    @Test(expected = MojoExecutionException.class)
+    public void emptyPackage() throws MojoExecutionException {
+        final Corpus corpus = new Corpus(0, 1, 0);
+        GenPackage.getFirstPackages(corpus.inspect(ImmutableList.of("com..Broken")), null);
+    }
+
+}
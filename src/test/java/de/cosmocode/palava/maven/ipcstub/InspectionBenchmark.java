@@ -0,0 +1,102 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+
+import de.cosmocode.palava.maven.ipcstub.InspectedCommand.ParamInfo;
+import de.cosmocode.palava.maven.ipcstub.InspectedCommand.ReturnInfo;
+import de.cosmocode.palava.maven.ipcstub.InspectedCommand.ThrowInfo;
+
+/**
+ * Creating {@link InspectedCommand}s from the index and reading them like a scheme does,
+ * with a growing number of annotations per command.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class InspectionBenchmark {
+
+    @Param({"1000"})
+    private int size;
+
+    @Param({"0", "4", "16"})
+    private int density;
+
+    private List<CommandIndex.Entry> entries;
+
+    private List<InspectedCommand> commands;
+
+    @Setup
+    public void setUp() {
+        final Corpus corpus = new Corpus(size, 3, density);
+        entries = Lists.newArrayList(corpus.entries().values());
+        commands = Lists.newArrayList(corpus.inspect());
+    }
+
+    @Benchmark
+    public void inspect(Blackhole blackhole) {
+        for (CommandIndex.Entry entry : entries) {
+            blackhole.consume(InspectedCommand.inspectIndexed(entry));
+        }
+    }
+
+    @Benchmark
+    public void access(Blackhole blackhole) {
+        for (InspectedCommand command : commands) {
+            blackhole.consume(command.getName());
+            blackhole.consume(command.getDescription());
+            blackhole.consume(command.isDeprecated());
+            blackhole.consume(command.getCaching());
+            for (ParamInfo param : command.getParams()) {
+                blackhole.consume(param.name());
+                blackhole.consume(param.type());
+                blackhole.consume(param.optional());
+                blackhole.consume(param.description());
+                blackhole.consume(param.defaultValue());
+            }
+            for (ReturnInfo info : command.getReturns()) {
+                blackhole.consume(info.name());
+                blackhole.consume(info.description());
+            }
+            for (ThrowInfo info : command.getThrows()) {
+                blackhole.consume(info.name().getName());
+                blackhole.consume(info.description());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoFailureException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the java scheme rejects params and returns which map to the same java name.
+ */
+public final class JavaNamesTest {
+
+    private static final String COMMAND = Corpus.ROOT + ".users.Update";
+
+    private File directory;
+
+    /**
+     * Creates the working directory.
+     *
+     * @throws IOException if creating failed
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Fixtures.createDirectory("java-names");
+    }
+
+    /**
+     * Removes all files.
+     *
+     * @throws IOException if deleting failed
+     */
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private void generate(CommandIndex.Entry entry) throws Exception {
+        final Generator generator = Fixtures.generator("java", "java", "velocity");
+        final GeneratorContext context = Fixtures.context(new File(directory, ".state"));
+        try {
+            generator.generate(Fixtures.QUIET, Collections.singleton(InspectedCommand.inspectIndexed(entry)), 
+                directory, context);
+        } finally {
+            context.getTemplates().release();
+        }
+    }
+
+    private static CommandIndex.Entry params(String... names) {
+        final CommandIndex.Entry entry = new CommandIndex.Entry(COMMAND, COMMAND, "", false);
+        for (String name : names) {
+            entry.addParam(new CommandIndex.ParamEntry(name, "", "string", false, ""));
+        }
+        return entry;
+    }
+
+    private void assertFails(CommandIndex.Entry entry, String first, String second) throws Exception {
+        try {
+            generate(entry);
+            Assert.fail("generated " + first + " and " + second);
+        } catch (MojoFailureException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("'" + first + "' and '" + second + "'"));
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(COMMAND));
+        }
+    }
+
+    /**
+     * Tests params which only differ in characters java doesn't allow.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void sanitized() throws Exception {
+    /* CHECKSTYLE:ON */
+        assertFails(params("a-b", "a_b"), "a-b", "a_b");
+    }
+
+    /**
+     * Tests a param named like an escaped keyword.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void keyword() throws Exception {
+    /* CHECKSTYLE:ON */
+        assertFails(params("class", "class_"), "class", "class_");
+    }
+
+    /**
+     * Tests returns whose getters only differ in the case of their first character.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void getters() throws Exception {
+    /* CHECKSTYLE:ON */
+        final CommandIndex.Entry entry = params();
+        entry.addReturn(new CommandIndex.ReturnEntry("name", ""));
+        entry.addReturn(new CommandIndex.ReturnEntry("Name", ""));
+        assertFails(entry, "name", "Name");
+    }
+
+    /**
+     * Tests that distinct names are generated.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void distinct() throws Exception {
+    /* CHECKSTYLE:ON */
+        final CommandIndex.Entry entry = params("a-b", "ab", "class");
+        entry.addReturn(new CommandIndex.ReturnEntry("a-b", ""));
+        entry.addReturn(new CommandIndex.ReturnEntry("ab", ""));
+        generate(entry);
+        Assert.assertTrue(new File(directory, COMMAND.replace('.', '/') + "Stub.java").isFile());
+    }
+
+}
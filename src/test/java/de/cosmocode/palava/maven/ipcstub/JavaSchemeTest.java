@@ -0,0 +1,205 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Generates the java scheme, compiles the stubs and calls them against an in-process
+ * stand-in server which answers every call with its arguments. The latency of single and
+ * batched calls is compared by the {@link BatchBenchmark}.
+ */
+public final class JavaSchemeTest {
+
+    private static final String CREATE = JavaStubs.CREATE;
+
+    private static final String FIND = JavaStubs.FIND;
+
+    // simulated network round trip of the stand-in server
+    private static final long LATENCY_MILLIS = 2;
+
+    private static final int CALLS = 50;
+
+    private static JavaStubs stubs;
+
+    private StandInServer server;
+
+    private Object client;
+
+    /**
+     * Generates and compiles the stubs.
+     *
+     * @throws Exception if generating or compiling failed
+     */
+    @BeforeClass
+    /* CHECKSTYLE:OFF */
+    public static void generate() throws Exception {
+    /* CHECKSTYLE:ON */
+        Assume.assumeTrue(JavaStubs.isSupported());
+        stubs = JavaStubs.compile();
+    }
+
+    /**
+     * Closes the stubs' loader and removes all files.
+     *
+     * @throws IOException if deleting failed
+     */
+    @AfterClass
+    public static void delete() throws IOException {
+        if (stubs != null) {
+            stubs.close();
+        }
+    }
+
+    /**
+     * Starts the server and connects a client.
+     *
+     * @throws Exception if the client could not be created
+     */
+    @Before
+    /* CHECKSTYLE:OFF */
+    public void setUp() throws Exception {
+    /* CHECKSTYLE:ON */
+        server = new StandInServer(LATENCY_MILLIS);
+        client = stubs.connect(server);
+    }
+
+    /**
+     * Stops the server.
+     */
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private static Object invoke(Object target, String name, Class<?>[] types, Object... arguments) throws Exception {
+        return JavaStubs.invoke(target, name, types, arguments);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> valuesOf(Object result) throws Exception {
+        return (Map<String, Object>) invoke(result, "asMap", new Class<?>[0]);
+    }
+
+    /**
+     * Tests a call with all required arguments.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void call() throws Exception {
+    /* CHECKSTYLE:ON */
+        final Object stub = stubs.stub(client, CREATE);
+        final Object result = invoke(stub, "call", new Class<?>[] {String.class}, "alice");
+
+        Assert.assertEquals(ImmutableMap.of("name", "alice"), invoke(result, "getArguments", new Class<?>[0]));
+        Assert.assertEquals(CREATE, valuesOf(result).get("command"));
+        Assert.assertEquals(1, server.getRoundTrips());
+    }
+
+    /**
+     * Tests that queued calls are sent in one round trip and answered in order.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void batch() throws Exception {
+    /* CHECKSTYLE:ON */
+        final Object stub = stubs.stub(client, CREATE);
+        final Object batch = invoke(client, "batch", new Class<?>[0]);
+        final Class<?> requestType = stubs.type(CREATE + "Stub$Request");
+        final List<Object> futures = Lists.newArrayList();
+        for (int i = 0; i < CALLS; i++) {
+            futures.add(invoke(stub, "queue", new Class<?>[] {batch.getClass(), requestType}, 
+                batch, stubs.request(stub, "user" + i)));
+        }
+        Assert.assertEquals(0, server.getRoundTrips());
+        invoke(batch, "send", new Class<?>[0]);
+
+        Assert.assertEquals(1, server.getRoundTrips());
+        final Method of = stubs.type(CREATE + "Stub$Result").getMethod("of", futures.get(0).getClass());
+        for (int i = 0; i < CALLS; i++) {
+            final Object result = of.invoke(null, futures.get(i));
+            Assert.assertEquals(ImmutableMap.of("name", "user" + i), valuesOf(result).get("arguments"));
+        }
+    }
+
+    /**
+     * Tests that cacheable commands are only sent once per arguments.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void cache() throws Exception {
+    /* CHECKSTYLE:ON */
+        final Object stub = stubs.stub(client, FIND);
+        final Class<?>[] types = {Long.class};
+        final Object first = invoke(stub, "call", types, Long.valueOf(1));
+        final Object cached = invoke(stub, "call", types, Long.valueOf(1));
+        Assert.assertEquals(1, server.getRoundTrips());
+        Assert.assertEquals(valuesOf(first), valuesOf(cached));
+
+        invoke(stub, "call", types, Long.valueOf(2));
+        Assert.assertEquals(2, server.getRoundTrips());
+    }
+
+    /**
+     * Tests that single calls take one round trip each and a batch of the same calls only one.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void roundTrips() throws Exception {
+    /* CHECKSTYLE:ON */
+        final Object stub = stubs.stub(client, CREATE);
+        final Class<?> requestType = stubs.type(CREATE + "Stub$Request");
+
+        for (int i = 0; i < CALLS; i++) {
+            invoke(stub, "call", new Class<?>[] {requestType}, stubs.request(stub, "user" + i));
+        }
+        Assert.assertEquals(CALLS, server.getRoundTrips());
+
+        final Object batch = invoke(client, "batch", new Class<?>[0]);
+        for (int i = 0; i < CALLS; i++) {
+            invoke(stub, "queue", new Class<?>[] {batch.getClass(), requestType}, batch, 
+                stubs.request(stub, "user" + i));
+        }
+        invoke(batch, "send", new Class<?>[0]);
+        Assert.assertEquals(CALLS + 1, server.getRoundTrips());
+    }
+
+}
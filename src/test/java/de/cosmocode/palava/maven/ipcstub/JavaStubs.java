@@ -0,0 +1,180 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Set;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * The generated and compiled stubs of the java scheme for two fixture commands, loaded
+ * in their own classloader. All stub classes are accessed reflectively.
+ */
+final class JavaStubs {
+
+    static final String CREATE = Corpus.ROOT + ".users.Create";
+
+    static final String FIND = Corpus.ROOT + ".users.Find";
+
+    private final File directory;
+
+    private final URLClassLoader loader;
+
+    private JavaStubs(File directory, URLClassLoader loader) {
+        this.directory = directory;
+        this.loader = loader;
+    }
+
+    private static Set<InspectedCommand> commands() {
+        final CommandIndex.Entry create = new CommandIndex.Entry(CREATE, CREATE, "Creates a user.", false);
+        create.addParam(new CommandIndex.ParamEntry("name", "The name", "string", false, ""));
+        create.addParam(new CommandIndex.ParamEntry("age", "", "int", true, "18"));
+        create.addReturn(new CommandIndex.ReturnEntry("arguments", "The received arguments"));
+
+        final CommandIndex.Entry find = new CommandIndex.Entry(FIND, FIND, "", false);
+        find.addParam(new CommandIndex.ParamEntry("id", "", "long", false, ""));
+        final CommandIndex.MetaEntry hint = new CommandIndex.MetaEntry(CacheHint.class.getName(), "CacheHint");
+        hint.addAttribute("ttl", "long", "60");
+        hint.addAttribute("sessionDependent", "boolean", "false");
+        hint.addAttribute("maxEntries", "int", "10");
+        find.addMeta(hint);
+
+        final Set<InspectedCommand> commands = Sets.newLinkedHashSet();
+        commands.add(InspectedCommand.inspectIndexed(create));
+        commands.add(InspectedCommand.inspectIndexed(find));
+        return commands;
+    }
+
+    /**
+     * Checks whether stubs can be compiled, which requires a jdk.
+     *
+     * @return true if a compiler is available, false otherwise
+     */
+    static boolean isSupported() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Generates and compiles the stubs.
+     *
+     * @return the loaded stubs, which have to be {@link #close() closed}
+     * @throws Exception if generating or compiling failed
+     */
+    /* CHECKSTYLE:OFF */
+    static JavaStubs compile() throws Exception {
+    /* CHECKSTYLE:ON */
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Preconditions.checkState(compiler != null, "no system java compiler");
+
+        final File directory = Fixtures.createDirectory("java-stubs");
+        final File sources = new File(directory, "sources");
+        final GeneratorContext context = Fixtures.context(new File(directory, "state"));
+        try {
+            Fixtures.generator("java", "java", "velocity").generate(Fixtures.QUIET, commands(), sources, context);
+        } finally {
+            context.getTemplates().release();
+        }
+
+        final File classes = new File(directory, "classes");
+        if (!classes.mkdirs()) {
+            throw new IOException("cannot create " + classes);
+        }
+        final List<String> arguments = Lists.newArrayList("-nowarn", "-d", classes.getPath());
+        for (Object source : FileUtils.listFiles(sources, new String[] {"java"}, true)) {
+            arguments.add(File.class.cast(source).getPath());
+        }
+        final int exitCode = compiler.run(null, null, null, arguments.toArray(new String[0]));
+        if (exitCode != 0) {
+            FileUtils.deleteDirectory(directory);
+            throw new IllegalStateException("compiler exit code " + exitCode);
+        }
+        return new JavaStubs(directory, new URLClassLoader(new URL[] {classes.toURI().toURL()}, 
+            JavaStubs.class.getClassLoader()));
+    }
+
+    Class<?> type(String name) throws ClassNotFoundException {
+        return loader.loadClass(name);
+    }
+
+    /**
+     * Creates a client which sends all calls to the given server.
+     *
+     * @param server the server
+     * @return a new IpcClient
+     * @throws Exception if the client could not be created
+     */
+    /* CHECKSTYLE:OFF */
+    Object connect(StandInServer server) throws Exception {
+    /* CHECKSTYLE:ON */
+        final Class<?> transportType = type("de.cosmocode.palava.ipc.stub.IpcTransport");
+        final Object transport = Proxy.newProxyInstance(loader, new Class<?>[] {transportType}, server);
+        return type("de.cosmocode.palava.ipc.stub.IpcClient").getConstructor(transportType).newInstance(transport);
+    }
+
+    /* CHECKSTYLE:OFF */
+    Object stub(Object client, String command) throws Exception {
+    /* CHECKSTYLE:ON */
+        return type(command + "Stub").getConstructor(client.getClass()).newInstance(client);
+    }
+
+    /* CHECKSTYLE:OFF */
+    Object request(Object stub, String name) throws Exception {
+    /* CHECKSTYLE:ON */
+        final Object request = stub.getClass().getMethod("request").invoke(null);
+        return request.getClass().getMethod("name", String.class).invoke(request, name);
+    }
+
+    /* CHECKSTYLE:OFF */
+    static Object invoke(Object target, String name, Class<?>[] types, Object... arguments) throws Exception {
+    /* CHECKSTYLE:ON */
+        try {
+            return target.getClass().getMethod(name, types).invoke(target, arguments);
+        } catch (InvocationTargetException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Closes the loader and removes all files.
+     *
+     * @throws IOException if deleting failed
+     */
+    void close() throws IOException {
+        // URLClassLoader is closeable since java 7
+        final Object self = loader;
+        if (self instanceof Closeable) {
+            Closeable.class.cast(self).close();
+        }
+        FileUtils.deleteDirectory(directory);
+    }
+
+}
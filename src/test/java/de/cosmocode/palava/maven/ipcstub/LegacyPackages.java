@@ -0,0 +1,123 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * The recursive package tree builder which {@link GenPackage#getFirstPackages(Set, GenPackage)}
+ * replaced, kept as the reference for its output. It walks all commands again for every
+ * package and searches known packages linearly.
+ */
+final class LegacyPackages {
+
+    private final String fullName;
+
+    private final LegacyPackages parent;
+
+    private final Set<LegacyPackages> packages = Sets.newLinkedHashSet();
+
+    private final List<InspectedCommand> commands = Lists.newArrayList();
+
+    LegacyPackages(String fullName, LegacyPackages parent) {
+        this.fullName = Preconditions.checkNotNull(fullName, "FullName");
+        this.parent = parent;
+    }
+
+    String getFullName() {
+        return fullName;
+    }
+
+    LegacyPackages getParent() {
+        return parent;
+    }
+
+    Set<LegacyPackages> getPackages() {
+        return packages;
+    }
+
+    List<InspectedCommand> getCommands() {
+        return commands;
+    }
+
+    /**
+     * Parses the given commands like the original builder.
+     *
+     * @param classes all commands to process
+     * @param parent the parent package
+     * @return the new tree structure
+     * @throws MojoExecutionException if execution failed
+     */
+    static Set<LegacyPackages> getFirstPackages(Set<InspectedCommand> classes, LegacyPackages parent) 
+        throws MojoExecutionException {
+        
+        final Set<LegacyPackages> packages = Sets.newLinkedHashSet();
+
+        for (InspectedCommand command : classes) {
+            // within the right package?
+            String className;
+            if (parent != null) {
+                if (!command.getName().startsWith(parent.getFullName() + ".")) {
+                    // not within the requested package
+                    continue;
+                } else {
+                    // strip the parents package
+                    className = command.getName().substring(parent.getFullName().length() + 1);
+                }
+            } else {
+                className = command.getName();
+            }
+            // we just need the first element
+            final int index = className.indexOf(".");
+            if (index == 0) {
+                throw new MojoExecutionException("invalid class definition found: " + command.getName());
+            } else if (index == -1) {
+                Preconditions.checkNotNull(parent, "Parent");
+                parent.commands.add(command);
+            } else {
+                // found a package, do we have it already?
+                final String pkgName = command.getName().substring(0, 
+                    command.getName().length() - className.length() + index);
+                boolean found = false;
+                for (LegacyPackages pkg : packages) {
+                    if (pkg.getFullName().equals(pkgName)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    // we don't have it, create it
+                    final LegacyPackages legacyPackage = new LegacyPackages(pkgName, parent);
+                    for (LegacyPackages pkg : getFirstPackages(classes, legacyPackage)) {
+                        legacyPackage.packages.add(pkg);
+                    }
+                    packages.add(legacyPackage);
+                }
+            }
+        }
+
+        return packages;
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.velocity.runtime.log.LogChute;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link MavenLogChute}.
+ */
+public final class MavenLogChuteTest {
+
+    /**
+     * Tests that messages of a thread rendering for a generator go to the generator's log only.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void attached() throws InterruptedException {
+        final RecordingLog execution = new RecordingLog();
+        final RecordingLog generator = new RecordingLog();
+        final MavenLogChute chute = new MavenLogChute(execution);
+
+        final Thread rendering = new Thread() {
+
+            @Override
+            public void run() {
+                chute.attach(generator);
+                try {
+                    chute.log(LogChute.WARN_ID, "generator");
+                } finally {
+                    chute.detach();
+                }
+                chute.log(LogChute.WARN_ID, "detached");
+            }
+
+        };
+        rendering.start();
+        rendering.join();
+        chute.log(LogChute.WARN_ID, "execution");
+
+        Assert.assertEquals(ImmutableList.of("generator"), generator.warnings);
+        Assert.assertEquals(ImmutableList.of("detached", "execution"), execution.warnings);
+    }
+
+    /**
+     * Records all warnings.
+     */
+    private static final class RecordingLog extends SystemStreamLog {
+
+        private final List<String> warnings = Lists.newArrayList();
+
+        @Override
+        public synchronized void warn(CharSequence content) {
+            warnings.add(content.toString());
+        }
+
+    }
+
+}
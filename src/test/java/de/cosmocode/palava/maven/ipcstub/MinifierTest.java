@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link Minifier}.
+ */
+public final class MinifierTest {
+
+    private static String lines(String... lines) {
+        final StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Tests comments, indentation and empty lines.
+     */
+    @Test
+    public void comments() {
+        final String source = lines(
+            "/*! license */",
+            "/**",
+            " * Docs.",
+            " */",
+            "function call(a, b) {",
+            "    // comment",
+            "",
+            "    return a /* inline */ + b; // trailing",
+            "}");
+        Assert.assertEquals(lines("/*! license */", "function call(a, b) {", "return a  + b; // trailing", "}"),
+            Minifier.minify(source, Minifier.Syntax.JAVASCRIPT));
+    }
+
+    /**
+     * Tests that quotes within regular expression literals don't start strings.
+     */
+    @Test
+    public void regex() {
+        final String source = lines(
+            "var quote = /'/;",
+            "var both = text.replace(/[\"/]/g, '');",
+            "if (/\\/\\*/.test(text)) {",
+            "    /* removed */",
+            "}",
+            "var half = total / 2; /* removed */",
+            "return /\"/.test(text);");
+        Assert.assertEquals(lines(
+            "var quote = /'/;",
+            "var both = text.replace(/[\"/]/g, '');",
+            "if (/\\/\\*/.test(text)) {",
+            "}",
+            "var half = total / 2;",
+            "return /\"/.test(text);"), Minifier.minify(source, Minifier.Syntax.JAVASCRIPT));
+    }
+
+    /**
+     * Tests that docblocks are kept in php, their annotations are read at runtime.
+     */
+    @Test
+    public void docblock() {
+        final String source = lines(
+            "<?php",
+            "/**",
+            " * @Route(\"/users\")",
+            " */",
+            "class Users {",
+            "    /* removed */",
+            "    # kept",
+            "}");
+        Assert.assertEquals(lines(
+            "<?php",
+            "/**",
+            " * @Route(\"/users\")",
+            " */",
+            "class Users {",
+            "# kept",
+            "}"), Minifier.minify(source, Minifier.Syntax.PHP));
+    }
+
+    /**
+     * Tests that only known file types are minified.
+     */
+    @Test
+    public void syntax() {
+        Assert.assertEquals(Minifier.Syntax.JAVASCRIPT, Minifier.Syntax.of("api/users.js"));
+        Assert.assertEquals(Minifier.Syntax.PHP, Minifier.Syntax.of("Users.php"));
+        Assert.assertEquals(Minifier.Syntax.JAVA, Minifier.Syntax.of("UsersStub.java"));
+        Assert.assertNull(Minifier.Syntax.of("users.py"));
+    }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Writing the files of the java scheme through the unbuffered {@link FileWriter} of
+ * previous versions and through the buffered in-memory rendering and {@link StubOutput}
+ * the generator uses now. The content is handed over line by line, which approximates
+ * the small writes of a template merge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class OutputBenchmark {
+
+    @Param({"100", "1000"})
+    private int size;
+
+    private final List<String> names = Lists.newArrayList();
+
+    private final List<String[]> contents = Lists.newArrayList();
+
+    private File source;
+
+    @Setup
+    /* CHECKSTYLE:OFF */
+    public void setUp() throws Exception {
+    /* CHECKSTYLE:ON */
+        source = Fixtures.createDirectory("output-source");
+        final GeneratorContext context = Fixtures.context(new File(source, ".state"));
+        try {
+            Fixtures.generator("java", "java", "velocity").generate(Fixtures.QUIET, new Corpus(size, 3, 4).inspect(),
+                source, context);
+        } finally {
+            context.getTemplates().release();
+        }
+        final int prefix = source.getPath().length() + 1;
+        for (Object file : FileUtils.listFiles(source, new String[] {"java"}, true)) {
+            names.add(File.class.cast(file).getPath().substring(prefix));
+            contents.add(FileUtils.readFileToString(File.class.cast(file), "UTF-8").split("\n"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(source);
+    }
+
+    /**
+     * The file writer of previous versions, one system call per write and the platform charset.
+     *
+     * @param target an empty directory
+     * @return the number of written files
+     * @throws IOException if writing failed
+     */
+    @Benchmark
+    public int unbuffered(Empty target) throws IOException {
+        for (int i = 0; i < names.size(); i++) {
+            final File file = new File(target.directory, names.get(i));
+            file.getParentFile().mkdirs();
+            final Writer writer = new FileWriter(file);
+            try {
+                for (String line : contents.get(i)) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        }
+        return names.size();
+    }
+
+    /**
+     * Renders into memory and writes every file at once.
+     *
+     * @param target an empty directory
+     * @return the number of written files
+     * @throws IOException if writing failed
+     */
+    @Benchmark
+    public int buffered(Empty target) throws IOException {
+        return write(target.directory);
+    }
+
+    /**
+     * Renders into memory and skips all files which did not change since the last invocation.
+     *
+     * @param target a directory with the files of the last invocation
+     * @return the number of unchanged files
+     * @throws IOException if writing failed
+     */
+    @Benchmark
+    public int unchanged(Existing target) throws IOException {
+        return write(target.directory);
+    }
+
+    private int write(File directory) throws IOException {
+        final StubOutput output = StubOutput.open(new File(directory, ".state/java.digests"));
+        for (int i = 0; i < names.size(); i++) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(Fixtures.BUFFER_SIZE);
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(bytes, Fixtures.UTF_8),
+                Fixtures.BUFFER_SIZE);
+            for (String line : contents.get(i)) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.close();
+            output.write(new File(directory, names.get(i)), bytes.toByteArray());
+        }
+        output.finish(Fixtures.QUIET);
+        return output.getWritten() + output.getUnchanged();
+    }
+
+    /**
+     * A target directory which is emptied before every invocation.
+     */
+    @State(Scope.Benchmark)
+    public static class Empty {
+
+        private File directory;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            tearDown();
+            directory = Fixtures.createDirectory("output");
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            if (directory != null) {
+                FileUtils.deleteDirectory(directory);
+            }
+        }
+
+    }
+
+    /**
+     * A target directory which keeps its files between invocations.
+     */
+    @State(Scope.Benchmark)
+    public static class Existing {
+
+        private File directory;
+
+        @Setup
+        public void setUp() throws IOException {
+            directory = Fixtures.createDirectory("output");
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            FileUtils.deleteDirectory(directory);
+        }
+
+    }
+
+}
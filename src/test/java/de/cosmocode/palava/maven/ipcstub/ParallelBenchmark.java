@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Running several generators over the same commands one after another and in parallel
+ * mode. Only meaningful on a machine with at least as many cores as generators.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ParallelBenchmark {
+
+    private static final int GENERATORS = 3;
+
+    @Param({"false", "true"})
+    private boolean parallel;
+
+    @Param({"1000"})
+    private int size;
+
+    private GeneratorModule module;
+
+    private List<GeneratorModule.GeneratorRun> runs;
+
+    private File target;
+
+    @Setup
+    /* CHECKSTYLE:OFF */
+    public void setUp() throws Exception {
+    /* CHECKSTYLE:ON */
+        final Set<InspectedCommand> commands = new Corpus(size, 3, 4).inspect();
+        final List<Generator> generators = Lists.newArrayList();
+        runs = Lists.newArrayList();
+        for (int i = 0; i < GENERATORS; i++) {
+            final Generator generator = Fixtures.generator("java" + i, "java", "velocity");
+            generators.add(generator);
+            runs.add(new GeneratorModule.GeneratorRun() {
+
+                @Override
+                public void generate(Log currentLog, File directory, GeneratorContext context)
+                    throws MojoExecutionException, MojoFailureException {
+                    generator.generate(currentLog, commands, directory, context);
+                }
+
+            });
+        }
+
+        module = new GeneratorModule();
+        Fixtures.set(module, "log", Fixtures.QUIET);
+        Fixtures.set(module, "generators", generators);
+        Fixtures.set(module, "parallel", parallel);
+        Fixtures.set(module, "encoding", "UTF-8");
+        Fixtures.set(module, "bufferSize", Fixtures.BUFFER_SIZE);
+        target = Fixtures.createDirectory("parallel");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(target);
+    }
+
+    @Benchmark
+    public void generate() throws MojoExecutionException, MojoFailureException {
+        module.startReport();
+        module.generate(runs, target, new File(target, ".state"));
+    }
+
+}
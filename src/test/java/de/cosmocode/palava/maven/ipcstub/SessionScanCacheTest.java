@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SessionScanCache}.
+ */
+public final class SessionScanCacheTest {
+
+    private final AtomicInteger scans = new AtomicInteger();
+
+    private final Callable<List<ClassHeader>> scan = new Callable<List<ClassHeader>>() {
+
+        @Override
+        public List<ClassHeader> call() {
+            scans.incrementAndGet();
+            return Collections.emptyList();
+        }
+
+    };
+
+    /**
+     * Tests that the sessions of all modules of one build, which are distinct objects in
+     * parallel builds, scan every element once.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void sameBuild() throws Exception {
+    /* CHECKSTYLE:ON */
+        final long started = System.currentTimeMillis();
+        final Date first = new Date(started);
+        final Date second = new Date(started);
+        final File api = new File("api.jar");
+        final File core = new File("core.jar");
+
+        SessionScanCache.forBuild(first).get(api, "1", scan);
+        SessionScanCache.forBuild(first).get(core, "1", scan);
+        SessionScanCache.forBuild(second).get(api, "1", scan);
+        SessionScanCache.forBuild(second).get(core, "1", scan);
+
+        Assert.assertEquals(2, scans.get());
+    }
+
+    /**
+     * Tests that another build and a changed element are scanned again.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void otherBuild() throws Exception {
+    /* CHECKSTYLE:ON */
+        final Date first = new Date(1000);
+        final Date second = new Date(2000);
+        final File api = new File("api.jar");
+
+        SessionScanCache.forBuild(first).get(api, "1", scan);
+        SessionScanCache.forBuild(second).get(api, "1", scan);
+        Assert.assertEquals(2, scans.get());
+
+        SessionScanCache.forBuild(first).get(api, "2", scan);
+        Assert.assertEquals(3, scans.get());
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An in-process IpcTransport of the java scheme which answers every call with its command
+ * and arguments on its own thread after a simulated network round trip.
+ */
+final class StandInServer implements InvocationHandler {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final AtomicInteger roundTrips = new AtomicInteger();
+
+    private final long latencyMillis;
+
+    StandInServer(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    int getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (!"send".equals(method.getName())) {
+            return method.invoke(this, args);
+        }
+        final Collection<?> calls = (Collection<?>) args[0];
+        roundTrips.incrementAndGet();
+        try {
+            return executor.submit(new Callable<List<Map<String, Object>>>() {
+
+                @Override
+                public List<Map<String, Object>> call() throws Exception {
+                    Thread.sleep(latencyMillis);
+                    final List<Map<String, Object>> results = Lists.newArrayList();
+                    for (Object call : calls) {
+                        final Map<String, Object> result = Maps.newLinkedHashMap();
+                        result.put("command", call.getClass().getMethod("getCommand").invoke(call));
+                        result.put("arguments", call.getClass().getMethod("getArguments").invoke(call));
+                        results.add(result);
+                    }
+                    return results;
+                }
+
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IOException("server failed: " + e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2010 CosmoCode GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.cosmocode.palava.maven.ipcstub;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests that streaming holds only one package of commands at a time. Every inspected
+ * command is tracked by a weak reference; whenever a package is inspected, the commands
+ * of all packages before the one which is still rendered have to be collectable.
+ */
+public final class StreamingTest {
+
+    private static final int COMMANDS = 1000;
+
+    // packages between two checks, every check collects garbage
+    private static final int CHECK_INTERVAL = 10;
+
+    private static final int GC_ATTEMPTS = 5;
+
+    private File directory;
+
+    /**
+     * Creates the working directory.
+     *
+     * @throws IOException if creating failed
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = Fixtures.createDirectory("streaming");
+    }
+
+    /**
+     * Removes all files.
+     *
+     * @throws IOException if deleting failed
+     */
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private Probe generate(String scheme, String engine) throws Exception {
+        final Corpus corpus = new Corpus(COMMANDS, 3, 4);
+        final Probe probe = new Probe(corpus);
+        final Generator generator = Fixtures.generator("streaming", scheme, engine);
+        final GeneratorContext context = Fixtures.context(new File(directory, ".state"));
+        try {
+            generator.generateStreaming(Fixtures.QUIET, GenPackage.stream(corpus.getNames(), probe), directory, 
+                context);
+        } finally {
+            context.getTemplates().release();
+        }
+        return probe;
+    }
+
+    /**
+     * Tests an emitter iterating the package stream.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void emitter() throws Exception {
+    /* CHECKSTYLE:ON */
+        final Probe probe = generate(PackageEmitter.SCHEME, "emitter");
+        Assert.assertEquals(COMMANDS, probe.getInspected());
+        Assert.assertTrue(probe.getChecks() > 0);
+        Assert.assertEquals("reachable commands of earlier packages", 0, probe.getLeaked());
+    }
+
+    /**
+     * Tests the templates of the bundled java scheme, which iterate $generator.packageStream.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    /* CHECKSTYLE:OFF */
+    public void velocity() throws Exception {
+    /* CHECKSTYLE:ON */
+        final Probe probe = generate("java", "velocity");
+        Assert.assertEquals(COMMANDS, probe.getInspected());
+        Assert.assertTrue(probe.getChecks() > 0);
+        Assert.assertEquals("reachable commands of earlier packages", 0, probe.getLeaked());
+    }
+
+    /**
+     * Inspects commands like the index does and tracks them by package.
+     */
+    private static final class Probe implements Function<String, InspectedCommand> {
+
+        private final Corpus corpus;
+
+        private final List<List<WeakReference<InspectedCommand>>> packages = Lists.newArrayList();
+
+        private String current;
+
+        private int inspected;
+
+        private int checks;
+
+        private int leaked;
+
+        Probe(Corpus corpus) {
+            this.corpus = corpus;
+        }
+
+        @Override
+        public InspectedCommand apply(String name) {
+            final String pkg = name.substring(0, name.lastIndexOf('.'));
+            if (!pkg.equals(current)) {
+                current = pkg;
+                if (packages.size() % CHECK_INTERVAL == 0) {
+                    // the previous package is still rendered
+                    check(packages.size() - 1);
+                }
+                packages.add(Lists.<WeakReference<InspectedCommand>>newArrayList());
+            }
+            final InspectedCommand command = InspectedCommand.inspectIndexed(corpus.entry(name));
+            packages.get(packages.size() - 1).add(new WeakReference<InspectedCommand>(command));
+            inspected++;
+            return command;
+        }
+
+        private void check(int end) {
+            checks++;
+            int reachable = reachable(end);
+            for (int attempt = 0; reachable > 0 && attempt < GC_ATTEMPTS; attempt++) {
+                System.gc();
+                reachable = reachable(end);
+            }
+            leaked = Math.max(leaked, reachable);
+        }
+
+        private int reachable(int end) {
+            int reachable = 0;
+            for (int i = 0; i < end; i++) {
+                for (WeakReference<InspectedCommand> reference : packages.get(i)) {
+                    if (reference.get() != null) {
+                        reachable++;
+                    }
+                }
+            }
+            return reachable;
+        }
+
+        int getInspected() {
+            return inspected;
+        }
+
+        int getChecks() {
+            return checks;
+        }
+
+        int getLeaked() {
+            return leaked;
+        }
+
+    }
+
+    /**
+     * Writes one file per package.
+     */
+    public static final class PackageEmitter implements Emitter {
+
+        static final String SCHEME = "test-streaming";
+
+        @Override
+        public String getScheme() {
+            return SCHEME;
+        }
+
+        @Override
+        public void emit(Generator generator) throws MojoExecutionException {
+            for (GenPackage pkg : generator.getPackageStream()) {
+                final CodeWriter out = generator.newFile(pkg.getFullName().replace('.', '/') + ".txt", pkg);
+                for (GenCommand command : pkg.getCommands()) {
+                    out.line(command.getName());
+                }
+                generator.writeFile(out);
+            }
+        }
+
+    }
+
+}